@@ -46,10 +46,13 @@ def query_json(_request):
     
     # wait for progressive computation is done
     progress = 0
+    coordinates = []
     while progress < 100:
         binary = ws.recv_frame()
         start1 = time.time()
-        coordinates, progress = decode_binary(binary.data)
+        chunk, progress, msg_type = decode_binary(binary.data)
+        # binary delta message (2) appends to previous messages
+        coordinates = coordinates + chunk if msg_type == 2 else chunk
         end1 = time.time()
         timings["decode"] += end1 - start1
     
@@ -104,7 +107,7 @@ def bbox2query(long0, lat0, long1, lat1, zoom, budget, algorithm, keyword):
 #    lat1      lng1      lat2      lng2      ...
 # | 8 BYTES | 8 BYTES | 8 BYTES | 8 BYTES | ...
 #
-# return - a list of coordinates [[long0, lat0], [long1, lat1], ...], progress
+# return - a list of coordinates [[long0, lat0], [long1, lat1], ...], progress, msg_type
 def decode_binary(_data):
     bytes = bytearray(_data)
 
@@ -129,7 +132,7 @@ def decode_binary(_data):
         long = struct.unpack('!d', bytes[offset + 8: offset + 16])[0]
         coordinates.append([long, lat])
 
-    return coordinates, progress
+    return coordinates, progress, msg_type
 
 
 # write coordinates list to file
@@ -19,14 +19,119 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static util.Constants.DOUBLE_BYTES;
 import static util.Constants.INT_BYTES;
 
 public class Agent extends AbstractActor {
 
-    public static Props props(ActorRef out, Config config) {
-        return Props.create(Agent.class, out, config);
+    public static Props props(ActorRef out, Config config, AlgorithmRegistry registry, QueryCache queryCache) {
+        return Props.create(Agent.class, out, config, registry, queryCache);
+    }
+
+    /**
+     * message to self, re-handle a query request after the algorithm it joined is loaded by another agent
+     */
+    private static final class JoinedQuery {
+        final Request request;
+
+        JoinedQuery(Request _request) {
+            this.request = _request;
+        }
+    }
+
+    /**
+     * state of a progressive loading, each of its stages runs after the previous one is piped back,
+     * so it is only accessed by one thread at a time
+     */
+    private static final class ProgressiveLoad {
+        final Request request;
+        final AlgorithmRegistry.Entry entry;
+        final PostgreSQL postgreSQL;
+        Date currentStart;
+        Date currentEnd;
+        volatile boolean cancelled; // the agent is stopped, remaining stages are skipped
+
+        // for experiments analysis
+        final List<Double> clusterTimes = new ArrayList<>();
+        final List<Double> treeTimes = new ArrayList<>();
+        final List<Integer> usedMemory = new ArrayList<>();
+        final List<Integer> totalMemory = new ArrayList<>();
+
+        ProgressiveLoad(Request _request, AlgorithmRegistry.Entry _entry, Date _start, int _intervalDays) {
+            this.request = _request;
+            this.entry = _entry;
+            this.postgreSQL = new PostgreSQL();
+            // initialize query slicing parameters
+            this.currentStart = new Date(_start.getTime());
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(this.currentStart);
+            calendar.add(Calendar.DATE, _intervalDays);
+            this.currentEnd = calendar.getTime();
+        }
+
+        void close() {
+            if (postgreSQL.conn != null) {
+                postgreSQL.disconnectDB();
+            }
+        }
+    }
+
+    /**
+     * message to self, reading the snapshot file of an algorithm is finished
+     */
+    private static final class FileLoaded {
+        final Request request;
+        final AlgorithmRegistry.Entry entry;
+        final boolean success; // false if the snapshot file does not exist or is not readable
+        final Throwable cause;
+
+        FileLoaded(Request _request, AlgorithmRegistry.Entry _entry, boolean _success, Throwable _cause) {
+            this.request = _request;
+            this.entry = _entry;
+            this.success = _success;
+            this.cause = _cause;
+        }
+    }
+
+    /**
+     * message to self, a batch is loaded into the algorithm, and the query is answered with the data loaded so far
+     */
+    private static final class BatchLoaded {
+        final ProgressiveLoad load;
+        final byte[] binaryData;
+
+        BatchLoaded(ProgressiveLoad _load, byte[] _binaryData) {
+            this.load = _load;
+            this.binaryData = _binaryData;
+        }
+    }
+
+    /**
+     * message to self, all batches are loaded and the algorithm finished loading
+     */
+    private static final class LoadFinished {
+        final ProgressiveLoad load;
+
+        LoadFinished(ProgressiveLoad _load) {
+            this.load = _load;
+        }
+    }
+
+    /**
+     * message to self, a stage of progressive loading failed
+     */
+    private static final class LoadFailed {
+        final ProgressiveLoad load;
+        final Throwable cause;
+
+        LoadFailed(ProgressiveLoad _load, Throwable _cause) {
+            this.load = _load;
+            this.cause = _cause;
+        }
     }
 
     // states of this agent
@@ -34,35 +139,39 @@ public class Agent extends AbstractActor {
     private Config config;
     private PostgreSQL postgreSQL;
     private List<Point> batch;
+    // blocking JDBC calls and CPU bound tree building of progressive loading run on dedicated bounded pools,
+    // so they never hold the default dispatcher
+    private Executor dbExecutor;
+    private Executor buildExecutor;
+    // progressive loadings in progress of this agent
+    private Set<ProgressiveLoad> loads;
+    // algorithms being read from snapshot files by this agent
+    private Set<AlgorithmRegistry.Entry> fileLoads;
 
     /**
-     * map of Algorithm instances
-     * key - key
-     * value - handle to Algorithm instance
-     */
-    private Map<String, IAlgorithm> algorithms;
-    /**
-     * map of Algorithms visiting counters
-     * key - key
-     * value - counter, number of visiting times of the algorithm
-     */
-    private Map<String, Integer> algorithmsHits;
-    /**
-     * Maximum number of Algorithm instances being kept in memory
+     * Algorithm instances shared by all agents
      */
-    private final int MAX_ALGORITHMS = 30;
+    private AlgorithmRegistry registry;
     private static final DateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     private Date start;
     private Date end;
     private int intervalDays;
+    /**
+     * cache of query results shared by all agents
+     */
+    private QueryCache queryCache;
 
 
     @Inject
-    public Agent(ActorRef out, Config config) {
+    public Agent(ActorRef out, Config config, AlgorithmRegistry registry, QueryCache queryCache) {
         this.out = out;
         this.config = config;
-        this.algorithms = new HashMap<>();
-        this.algorithmsHits = new HashMap<>();
+        this.registry = registry;
+        this.queryCache = queryCache;
+        this.loads = new HashSet<>();
+        this.fileLoads = new HashSet<>();
+        this.dbExecutor = getContext().getSystem().dispatchers().lookup("rainbow.db-dispatcher");
+        this.buildExecutor = getContext().getSystem().dispatchers().lookup("rainbow.build-dispatcher");
 
         try {
             this.start = sdf.parse(this.config.getString("progressive.start"));
@@ -112,7 +221,24 @@ public class Agent extends AbstractActor {
         Constants.STOP_CRITERIA = this.config.getDouble("stop.criteria");
 
         Constants.RENDERING_FUNCTION = this.config.getString("rendering.function");
+        Constants.STENCIL_STEPS = this.config.getInt("rendering.stencil_steps");
         Constants.ERROR_FUNCTION = this.config.getString("error.function");
+        Constants.LAZY_ERRORS = this.config.getBoolean("error.lazy");
+        Constants.WARMUP_ZOOMS = this.config.getIntList("error.warmup_zooms").stream().mapToInt(Integer::intValue).toArray();
+
+        Constants.RANKED_ZOOMS = this.config.getIntList("ranked.zooms").stream().mapToInt(Integer::intValue).toArray();
+        Constants.RANKED_MAX_SAMPLES = this.config.getInt("ranked.max_samples");
+        Constants.RANKED_MAX_SCAN_FACTOR = this.config.getInt("ranked.max_scan_factor");
+
+        Constants.MAX_QUERY_TILES = this.config.getInt("query.max_tiles");
+        Constants.TILE_CACHE_BYTES = this.config.getLong("cache.tile_max_bytes");
+
+        Constants.STREAM_FIRST_CHUNK = this.config.getInt("query.stream_first_chunk");
+        Constants.STREAM_CHUNK_GROWTH = this.config.getInt("query.stream_chunk_growth");
+
+        Constants.PARALLEL_THRESHOLD = this.config.getInt("parallel.threshold");
+        Constants.PARALLEL_BFS_SAMPLE_SIZE = this.config.getInt("parallel.bfs_sample_size");
+        Constants.PARALLEL_BFS_SUBTREES_PER_CORE = this.config.getInt("parallel.bfs_subtrees_per_core");
     }
 
     public static Props getProps() {
@@ -129,6 +255,14 @@ public class Agent extends AbstractActor {
                     }
                     handleRequest(request);
                 })
+                .match(JoinedQuery.class, joined -> {
+                    MyLogger.info(this.getClass(), "joined algorithm loaded: " + joined.request.query.key);
+                    handleQuery(joined.request);
+                })
+                .match(FileLoaded.class, this::handleFileLoaded)
+                .match(BatchLoaded.class, this::handleBatchLoaded)
+                .match(LoadFinished.class, this::handleLoadFinished)
+                .match(LoadFailed.class, this::handleLoadFailed)
                 .matchAny(object -> MyLogger.error(this.getClass(), "Received unknown message: " + object.getClass()))
                 .build();
     }
@@ -165,6 +299,8 @@ public class Agent extends AbstractActor {
      * handle query request
      *  - if given cluster key does NOT exists,
      *      do the loadData and clusterData first,
+     *  - if given cluster key is being loaded by another agent,
+     *      join it and handle the query again when it is loaded,
      *  - query the cluster
      *
      * @param _request
@@ -179,53 +315,159 @@ public class Agent extends AbstractActor {
         if (query.key == null) {
             // TODO - exception
         }
-        String clusterKey = query.key;
+        AlgorithmRegistry.Entry entry = registry.acquire(query);
+        if (entry == null) {
+            // TODO - exception
+            return;
+        }
 
         // if given cluster key does NOT exists, do the loadData and clusterData first,
-        if (!algorithms.containsKey(clusterKey)) {
-            // first check if we can load file to algorithm
-            boolean success = loadFileToAlgorithm(query);
-            if (success) {
-                answerQuery(query, 100);
+        if (entry.claimLoad()) {
+            // first check if we can load file to algorithm,
+            // reading a large snapshot is slow, so it runs on buildExecutor and the result is piped back
+            fileLoads.add(entry);
+            ActorRef self = self();
+            CompletableFuture.supplyAsync(() -> loadFileToAlgorithm(query, entry.algorithm), buildExecutor)
+                    .whenComplete((success, e) -> self.tell(
+                            new FileLoaded(_request, entry, e == null && success, e), ActorRef.noSender()));
+        }
+        // answer the query directly
+        else if (entry.isLoaded()) {
+            answerQuery(query, entry.algorithm);
+        }
+        // otherwise, another agent is loading it, do not load it again but wait for it
+        else {
+            ActorRef self = self();
+            entry.whenLoaded().whenComplete((algorithm, e) -> self.tell(new JoinedQuery(_request), ActorRef.noSender()));
+        }
+    }
+
+    private void handleFileLoaded(FileLoaded loaded) {
+        fileLoads.remove(loaded.entry);
+        if (loaded.cause != null) {
+            MyLogger.error(this.getClass(), "loading " + loaded.entry.key + " from file failed: " + loaded.cause);
+            // agents joined this algorithm will load it again
+            registry.failed(loaded.entry, loaded.cause);
+        }
+        else if (loaded.success) {
+            registry.loaded(loaded.entry, true);
+            answerQuery(loaded.request.query, loaded.entry.algorithm);
+        }
+        // otherwise, we can only do progressive data loading from DB
+        else {
+            handleQueryProgressively(loaded.request, loaded.entry);
+        }
+    }
+
+    /**
+     * answer a query with all data loaded, results are cached and streamed in chunks
+     *
+     * @param query
+     * @param algorithm
+     */
+    private void answerQuery(Query query, IAlgorithm algorithm) {
+        MyTimer.temporaryTimer().clear();
+        MyTimer.temporaryTimer().put("treeTime", 0.0);
+        MyTimer.temporaryTimer().put("aggregateTime", 0.0);
+        MyTimer.startTimer();
+
+        // query the algorithm
+        byte[] binaryData = null;
+
+        // serve repeated viewports over the same tiles from the query cache
+        QueryCache.Key cacheKey = null;
+        if (queryCache.isEnabled()) {
+            cacheKey = queryCache.keyOf(query);
+            byte[] cachedData = queryCache.get(cacheKey);
+            if (cachedData != null) {
+                // header is written for each response, do not share the cached array
+                binaryData = cachedData.clone();
+                MyTimer.temporaryTimer().put("treeTime", 0.0);
+                MyLogger.info(this.getClass(), "query cache hit: " + queryCache.stats());
             }
-            // otherwise, we can only do progressive data loading from DB
+            // the result to be cached must cover all queries of the same key
             else {
-                handleQueryProgressively(_request);
+                query = QueryCache.snapToTiles(query, cacheKey);
             }
         }
-        // otherwise, answer the query directly
-        else {
-            answerQuery(query, 100);
+        // results are streamed in chunks, the first chunk is sent as soon as it is found
+        if (binaryData == null) {
+            long startTime = System.nanoTime();
+            List<byte[]> chunks = new ArrayList<>();
+            algorithm.answerQuery(query, (chunk, chunkProgress) -> {
+                chunks.add(chunk);
+                // the last chunk is sent below with the timings of the whole query
+                if (chunkProgress < 100) {
+                    double chunkTime = (double) (System.nanoTime() - startTime) / 1000000000.0;
+                    buildBinaryHeader(chunk, chunkProgress, chunkTime, chunkTime, 0.0);
+                    respond(chunk);
+                }
+            });
+            // an algorithm sending no chunk is answered with an empty result
+            if (chunks.isEmpty()) {
+                MyLogger.error(this.getClass(), "query on " + query.key + " returned no chunk");
+                binaryData = new byte[Constants.HEADER_SIZE];
+            }
+            else {
+                binaryData = chunks.get(chunks.size() - 1);
+                if (cacheKey != null) {
+                    queryCache.put(cacheKey, chunks.size() == 1? binaryData: concatenateChunks(chunks));
+                }
+            }
         }
+
+        MyTimer.stopTimer();
+        double totalTime = MyTimer.durationSeconds();
+        double treeTime = MyTimer.temporaryTimer().get("treeTime");
+        double aggregateTime = MyTimer.temporaryTimer().get("aggregateTime");
+
+        buildBinaryHeader(binaryData, 100, totalTime, treeTime, aggregateTime);
+
+        respond(binaryData);
     }
 
-    private void answerQuery(Query query, int progress) {
-        MyTimer.temporaryTimer.clear();
-        MyTimer.temporaryTimer.put("treeTIme", 0.0);
-        MyTimer.temporaryTimer.put("aggregateTime", 0.0);
+    /**
+     * answer a query with the data loaded so far, results are neither cached nor streamed
+     *
+     * Note: runs on buildExecutor for progressive loading
+     *
+     * @param query
+     * @param algorithm
+     * @param progress
+     * @return binary message with header
+     */
+    private byte[] answerPartialQuery(Query query, IAlgorithm algorithm, int progress) {
+        MyTimer.temporaryTimer().clear();
+        MyTimer.temporaryTimer().put("treeTime", 0.0);
+        MyTimer.temporaryTimer().put("aggregateTime", 0.0);
         MyTimer.startTimer();
 
-        // Add hit to querying super cluster
-        algorithmsHits.put(query.key, algorithmsHits.get(query.key) + 1);
-
-        // query the algorithm
-        IAlgorithm algorithm = algorithms.get(query.key);
         byte[] binaryData = algorithm.answerQuery(query);
 
         MyTimer.stopTimer();
         double totalTime = MyTimer.durationSeconds();
-        double treeTime = MyTimer.temporaryTimer.get("treeTime");
-        double aggregateTime = MyTimer.temporaryTimer.get("aggregateTime");
+        double treeTime = MyTimer.temporaryTimer().get("treeTime");
+        double aggregateTime = MyTimer.temporaryTimer().get("aggregateTime");
 
         buildBinaryHeader(binaryData, progress, totalTime, treeTime, aggregateTime);
-
-        respond(binaryData);
+        return binaryData;
     }
 
-    private void finishLoad(Query query) {
-        // query the algorithm
-        IAlgorithm algorithm = algorithms.get(query.key);
-        algorithm.finishLoad();
+    /**
+     * @param _chunks - binary message followed by binary delta messages
+     * @return one binary message with the records of all chunks
+     */
+    private byte[] concatenateChunks(List<byte[]> _chunks) {
+        int size = Constants.HEADER_SIZE;
+        for (byte[] chunk : _chunks) size += chunk.length - Constants.HEADER_SIZE;
+        // header is left all 0, msgType = 0 - binary message
+        byte[] binaryData = new byte[size];
+        int offset = Constants.HEADER_SIZE;
+        for (byte[] chunk : _chunks) {
+            System.arraycopy(chunk, Constants.HEADER_SIZE, binaryData, offset, chunk.length - Constants.HEADER_SIZE);
+            offset += chunk.length - Constants.HEADER_SIZE;
+        }
+        return binaryData;
     }
 
     private void buildBinaryHeader(byte[] binaryData, int progress, double totalTime, double treeTime, double aggregateTime) {
@@ -271,91 +513,160 @@ public class Agent extends AbstractActor {
         binaryData[j+7] = (byte) ((aggregateTimeL >>  0) & 0xff);
     }
 
-    private void handleQueryProgressively(Request _request) {
-
-        // for experiments analysis
-        MyTimer.progressTimer.clear();
-        MyTimer.progressTimer.put("clusterTime",  new ArrayList<>());
-        MyTimer.progressTimer.put("treeTime", new ArrayList<>());
-        MyMemory.progressUsedMemory.clear();
-        MyMemory.porgressTotalMemory.clear();
-
-        Query query = _request.query;
+    /**
+     * load data of the query progressively from DB, slice by slice of time,
+     * and answer the query with the partial data loaded after each slice
+     *
+     *  - fetching a slice runs on dbExecutor, loading it and answering the query run on buildExecutor,
+     *    the partial result is piped back to this agent as a BatchLoaded message, which starts the next slice
+     *  - so this agent is never blocked by the loading and keeps handling other messages
+     *
+     * @param _request
+     * @param entry - claimed entry of the query's algorithm
+     */
+    private void handleQueryProgressively(Request _request, AlgorithmRegistry.Entry entry) {
         if (_request.keyword == null) {
             // TODO - exception
         }
-        this.batch = null;
+        ProgressiveLoad load = new ProgressiveLoad(_request, entry, this.start, this.intervalDays);
+        loads.add(load);
+        loadNextBatch(load);
+    }
 
-        // initialize query slicing parameters
-        Date currentStart = new Date(this.start.getTime());
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(currentStart);
-        calendar.add(Calendar.DATE, this.intervalDays);
-        Date currentEnd = calendar.getTime();
+    /**
+     * the WebSocket is closed, messages of in-flight loadings would never be handled,
+     * so their algorithms are released for other agents to load them again
+     */
+    @Override
+    public void postStop() {
+        for (ProgressiveLoad load : loads) {
+            load.cancelled = true;
+            registry.failed(load.entry, new CancellationException("agent stopped while loading " + load.entry.key));
+        }
+        loads.clear();
+        for (AlgorithmRegistry.Entry entry : fileLoads) {
+            registry.failed(entry, new CancellationException("agent stopped while loading " + entry.key + " from file"));
+        }
+        fileLoads.clear();
+    }
+
+    private void loadNextBatch(ProgressiveLoad load) {
+        ActorRef self = self();
+        // all slices are loaded, finish loading
+        if (!load.currentStart.before(this.end)) {
+            CompletableFuture.runAsync(() -> {
+                // notify algorithm that data loading is done.
+                load.entry.algorithm.finishLoad();
+            }, buildExecutor).whenComplete((result, e) -> {
+                if (load.cancelled) {
+                    load.close();
+                    return;
+                }
+                self.tell(e == null? new LoadFinished(load): new LoadFailed(load, e), ActorRef.noSender());
+            });
+            return;
+        }
+
+        Query query = load.request.query;
+        Date currentStart = load.currentStart;
+        Date currentEnd = load.currentEnd;
         long totalDays = (this.end.getTime() - this.start.getTime()) / (24 * 3600 * 1000);
+        long progress = (currentEnd.getTime() - this.start.getTime()) / (24 * 3600 * 1000);
+        int percentage = (int) (100 * progress / totalDays);
+
+        // (1) fetch a batch of data from database
+        CompletableFuture.supplyAsync(() -> {
+                    if (load.cancelled) throw new CancellationException();
+                    return fetchBatch(load.postgreSQL, load.request.keyword, currentStart, currentEnd);
+                }, dbExecutor)
+                .thenApplyAsync(batch -> {
+                    if (load.cancelled) throw new CancellationException();
+                    if (batch == null) {
+                        // TODO - exception
+                    }
 
-        // start query slicing cycles
-        while (currentStart.before(this.end)) {
-            long progress = (currentEnd.getTime() - this.start.getTime()) / (24 * 3600 * 1000);
-            progress = 100 * progress / totalDays;
+                    // (2) load the batch into algorithm
+                    MyTimer.startTimer();
+                    boolean success = loadBatchToAlgorithm(query, load.entry.algorithm, batch, queryCache);
+                    MyTimer.stopTimer();
+                    load.clusterTimes.add(MyTimer.durationSeconds());
+                    load.usedMemory.add(MyMemory.getUsedMemory());
+                    load.totalMemory.add(MyMemory.getTotalMemory());
+                    if (!success) {
+                        // TODO - exception
+                    }
 
-            // (1) fetch a batch of data from database
-            boolean success = fetchBatchFromDB(_request.keyword, currentStart, currentEnd);
-            if (!success) {
-                // TODO - exception
-            }
+                    // (3) answer current query with partial data loaded
+                    MyTimer.startTimer();
+                    byte[] binaryData = answerPartialQuery(query, load.entry.algorithm, percentage);
+                    MyTimer.stopTimer();
+                    load.treeTimes.add(MyTimer.durationSeconds());
+                    return binaryData;
+                }, buildExecutor)
+                .whenComplete((binaryData, e) -> {
+                    if (load.cancelled) {
+                        load.close();
+                        return;
+                    }
+                    self.tell(e == null? new BatchLoaded(load, binaryData): new LoadFailed(load, e), ActorRef.noSender());
+                });
+    }
 
-            // (2) load the batch into algorithm
-            MyTimer.startTimer();
-            success = loadBatchToAlgorithm(query);
-            MyTimer.stopTimer();
-            MyTimer.progressTimer.get("clusterTime").add(MyTimer.durationSeconds());
-            MyMemory.progressUsedMemory.add(MyMemory.getUsedMemory());
-            MyMemory.porgressTotalMemory.add(MyMemory.getTotalMemory());
-            if (!success) {
-                // TODO - exception
-            }
+    private void handleBatchLoaded(BatchLoaded loaded) {
+        respond(loaded.binaryData);
 
-            // (3) answer current query with partial data loaded
-            MyTimer.startTimer();
-            answerQuery(query, (int) progress);
-            MyTimer.stopTimer();
-            MyTimer.progressTimer.get("treeTime").add(MyTimer.durationSeconds());
+        // prepare query slicing parameters for next cycle
+        ProgressiveLoad load = loaded.load;
+        load.currentStart = load.currentEnd;
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(load.currentStart);
+        calendar.add(Calendar.DATE, this.intervalDays);
+        load.currentEnd = calendar.getTime();
 
-            // prepare query slicing parameters for next cycle
-            currentStart = currentEnd;
-            calendar = Calendar.getInstance();
-            calendar.setTime(currentStart);
-            calendar.add(Calendar.DATE, this.intervalDays);
-            currentEnd = calendar.getTime();
-        }
+        loadNextBatch(load);
+    }
+
+    private void handleLoadFinished(LoadFinished finished) {
+        ProgressiveLoad load = finished.load;
+        loads.remove(load);
+        load.close();
 
-        // notify algorithm that data loading is done.
-        finishLoad(query);
+        // agents joined this algorithm can query it now
+        registry.loaded(load.entry, false);
 
         // save algorithm to file.
-        saveAlgorithmToFile(query);
+        saveAlgorithmToFile(load.entry);
 
         // for experiments analysis
         System.out.println("========== Experiment Analysis ==========");
         System.out.println("Progressive Query: ");
-        System.out.println("keyword: " + _request.keyword);
-        System.out.println("algorithm: " + _request.query.algorithm);
+        System.out.println("keyword: " + load.request.keyword);
+        System.out.println("algorithm: " + load.request.query.algorithm);
         System.out.println("clustering time for each batch: ");
-        for (double time: MyTimer.progressTimer.get("clusterTime")) {
+        for (double time: load.clusterTimes) {
             System.out.println(time);
         }
         System.out.println("Tree-cut time for each batch: ");
-        for (double time: MyTimer.progressTimer.get("treeTime")) {
+        for (double time: load.treeTimes) {
             System.out.println(time);
         }
         System.out.println("memory usage until each batch (MB): ");
-        for (int i = 0; i < MyMemory.progressUsedMemory.size(); i ++) {
-            System.out.println(MyMemory.progressUsedMemory.get(i) + ",  " + MyMemory.porgressTotalMemory.get(i));
+        for (int i = 0; i < load.usedMemory.size(); i ++) {
+            System.out.println(load.usedMemory.get(i) + ",  " + load.totalMemory.get(i));
         }
         System.out.println("========== =================== ==========");
     }
 
+    private void handleLoadFailed(LoadFailed failed) {
+        ProgressiveLoad load = failed.load;
+        loads.remove(load);
+        load.close();
+        MyLogger.error(this.getClass(), "progressive loading of " + load.entry.key + " failed: " + failed.cause);
+        failed.cause.printStackTrace();
+        // agents joined this algorithm will load it again
+        registry.failed(load.entry, failed.cause);
+    }
+
     private void handleCmds(Request _request) {
         Command[] cmds = _request.cmds;
 
@@ -386,13 +697,7 @@ public class Agent extends AbstractActor {
         if (postgreSQL == null) {
             postgreSQL = new PostgreSQL();
         }
-        List<Point> batchPoints;
-        if (keyword.equals("%")) {
-            batchPoints = postgreSQL.queryPointsForTime(start, end);
-        }
-        else {
-            batchPoints = postgreSQL.queryPointsForKeywordAndTime(keyword, start, end);
-        }
+        List<Point> batchPoints = fetchBatch(postgreSQL, keyword, start, end);
         if (batchPoints == null) {
             return false;
         }
@@ -403,77 +708,62 @@ public class Agent extends AbstractActor {
     }
 
     /**
-     * load current batch into the algorithm
+     * Note: blocking JDBC calls, runs on dbExecutor for progressive loading
+     *
+     * @param postgreSQL
+     * @param keyword
+     * @param start
+     * @param end
+     * @return points of given keyword and time range, null if query failed
+     */
+    private static List<Point> fetchBatch(PostgreSQL postgreSQL, String keyword, Date start, Date end) {
+        if (keyword.equals("%")) {
+            return postgreSQL.queryPointsForTime(start, end);
+        }
+        else {
+            return postgreSQL.queryPointsForKeywordAndTime(keyword, start, end);
+        }
+    }
+
+    /**
+     * load a batch into the algorithm
+     *
+     * Note: runs on buildExecutor for progressive loading
      *
      * @param query - Query
+     * @param algorithm - Algorithm of query.key
+     * @param batch
+     * @param queryCache - cached results of the algorithm are invalidated
      * @return
      */
-    private boolean loadBatchToAlgorithm(Query query) {
+    private static boolean loadBatchToAlgorithm(Query query, IAlgorithm algorithm, List<Point> batch, QueryCache queryCache) {
 
-        if (this.batch == null || this.batch.isEmpty()) {
+        if (batch == null || batch.isEmpty()) {
             return false;
         }
         else {
-            IAlgorithm algorithm = getAlgorithm(query);
-            algorithm.load(this.batch);
+            algorithm.load(batch);
+            // cached results of this algorithm are out of date
+            queryCache.invalidate(query.key);
         }
 
         return true;
     }
 
-    private boolean loadFileToAlgorithm(Query query) {
-        String fileName = Constants.DATASET_NAME + "-" + query.key + ".raqt";
-        IAlgorithm algorithm = getAlgorithm(query);
-        return algorithm.readFromFile(fileName);
-    }
-
-    private boolean saveAlgorithmToFile(Query query) {
-        String fileName = Constants.DATASET_NAME + "-" + query.key + ".raqt";
-        IAlgorithm algorithm = getAlgorithm(query);
-        return algorithm.writeToFile(fileName);
+    /**
+     * Note: runs on buildExecutor
+     */
+    private static boolean loadFileToAlgorithm(Query query, IAlgorithm algorithm) {
+        return algorithm.readFromFile(AlgorithmRegistry.fileName(query.key));
     }
 
-    private IAlgorithm getAlgorithm(Query query) {
-        IAlgorithm algorithm;
-        if (algorithms.containsKey(query.key)) {
-            algorithm = algorithms.get(query.key);
-        }
-        else {
-            // if too many cached clusters, replace the least used one
-            if (algorithms.size() > MAX_ALGORITHMS) {
-                String leastUsedAlgorithmKey = null;
-                int leastHit = Integer.MAX_VALUE;
-                for (Map.Entry<String, Integer> map: this.algorithmsHits.entrySet()) {
-                    if (map.getValue() < leastHit) {
-                        leastHit = map.getValue();
-                        leastUsedAlgorithmKey = map.getKey();
-                    }
-                }
-                if (leastUsedAlgorithmKey != null) {
-                    algorithms.remove(leastUsedAlgorithmKey);
-                }
+    private void saveAlgorithmToFile(AlgorithmRegistry.Entry entry) {
+        // written in background to not block this agent, with lazy errors, writing the snapshot computes all errors first
+        registry.save(entry).whenComplete((success, e) -> {
+            if (e != null || !success) {
+                MyLogger.error(this.getClass(), "save algorithm " + entry.key + " to file failed.");
             }
-
-            switch (query.algorithm) {
-                case "KDTreeExplorer":
-                    algorithm = new KDTreeExplorer();
-                    break;
-                case "QuadTreeExplorer":
-                    algorithm = new QuadTreeExplorer();
-                    break;
-                case "RAQuadTree":
-                    algorithm = new RAQuadTree();
-                    break;
-                case "RAQuadTreeDistance":
-                    algorithm = new RAQuadTreeDistance();
-                    break;
-                default:
-                    return null;
-            }
-            algorithms.put(query.key, algorithm);
-            algorithmsHits.put(query.key, 0);
-        }
-        return algorithm;
+        });
     }
 
     private boolean handleCmd(Command _cmd, Request _request) {
@@ -584,6 +874,29 @@ public class Agent extends AbstractActor {
                 ((ObjectNode) response).set("result", result);
                 respond(response);
                 break;
+            case "memory":
+                String key = _request.analysis.arguments == null || _request.analysis.arguments.length == 0?
+                        null: _request.analysis.arguments[0];
+                response = Json.toJson(_request);
+                result = JsonNodeFactory.instance.objectNode();
+                ArrayNode algorithms = result.putArray("algorithms");
+                long totalBytes = 0;
+                for (AlgorithmRegistry.Entry entry : registry.entries()) {
+                    if (key != null && !key.equals(entry.key)) continue;
+                    ObjectNode algorithm = algorithms.addObject();
+                    algorithm.put("key", entry.key);
+                    algorithm.put("algorithm", entry.algorithm.getClass().getSimpleName());
+                    algorithm.put("loaded", entry.isLoaded());
+                    algorithm.put("estimatedBytes", entry.algorithm.estimatedBytes());
+                    algorithm.put("nodeCount", entry.algorithm.nodeCount());
+                    algorithm.put("pointCount", entry.algorithm.pointCount());
+                    totalBytes += entry.algorithm.estimatedBytes();
+                }
+                result.put("totalBytes", totalBytes);
+                ((ObjectNode) response).put("status", "done");
+                ((ObjectNode) response).set("result", result);
+                respond(response);
+                break;
         }
 
     }
@@ -0,0 +1,259 @@
+package actor;
+
+import akka.actor.ActorSystem;
+import algorithms.*;
+import com.typesafe.config.Config;
+import model.Query;
+import util.Constants;
+import util.FrequencySketch;
+import util.MyLogger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Algorithm instances shared by all agents (i.e. all WebSocket connections)
+ *
+ *  - one algorithm instance per key, so the same keyword opened by several users is loaded and kept only once
+ *  - the first agent acquiring a key claims loading it (claimLoad()),
+ *    other agents join the in-flight loading through whenLoaded() instead of loading it again
+ *  - loaded algorithms are bounded by their estimated heap bytes (registry.max_bytes),
+ *    when a newly loaded algorithm exceeds the bound, it competes with the least recently used one:
+ *    the one less frequently acquired recently is evicted
+ *  - the policy is TinyLFU admission over plain LRU, without the admission window of W-TinyLFU,
+ *    so a new algorithm acquired only once is evicted in favor of a frequently acquired one even if used more recently
+ *  - an algorithm read from a memory-mapped snapshot file is weighed by its heap arrays only,
+ *    its mapped nodes and errors live in the page cache outside of the heap, and are not bounded by registry.max_bytes
+ *  - an evicted algorithm is written to its snapshot file before being dropped,
+ *    so a later request reloads it from disk instead of the database,
+ *    algorithms that cannot be written to snapshot files (see IAlgorithm.canWriteToFile) are dropped directly
+ */
+@Singleton
+public class AlgorithmRegistry {
+
+    public static class Entry {
+        public final String key;
+        public final IAlgorithm algorithm;
+        final CompletableFuture<IAlgorithm> loaded;
+        final AtomicBoolean claimed;
+        CompletableFuture<Boolean> saved; // null if the snapshot file is not written yet
+        volatile CompletableFuture<Void> spilled; // null if the entry is never spilled
+
+        Entry(String _key, IAlgorithm _algorithm) {
+            key = _key;
+            algorithm = _algorithm;
+            loaded = new CompletableFuture<>();
+            claimed = new AtomicBoolean(false);
+        }
+
+        /**
+         * @return true only for the first caller, who must load data into the algorithm,
+         *         then call AlgorithmRegistry.loaded() or AlgorithmRegistry.failed()
+         */
+        public boolean claimLoad() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        public boolean isLoaded() {
+            return loaded.isDone() && !loaded.isCompletedExceptionally();
+        }
+
+        /**
+         * @return completed when loading of the algorithm is finished, exceptionally if loading failed
+         */
+        public CompletableFuture<IAlgorithm> whenLoaded() {
+            return loaded;
+        }
+
+        /**
+         * @return completed when the evicted entry is written to its snapshot file and released,
+         *         null if the entry is not spilled
+         */
+        public CompletableFuture<Void> whenSpilled() {
+            return spilled;
+        }
+    }
+
+    /**
+     * Maximum total estimated heap bytes of loaded Algorithm instances
+     */
+    private final long maxBytes;
+
+    // entries in access order, the least recently used first
+    private final LinkedHashMap<String, Entry> entries;
+    // evicted entries whose snapshot files are being written, they are put back if acquired again meanwhile
+    private final Map<String, Entry> spilling;
+    private final FrequencySketch frequencies;
+    // writes snapshot files, CPU bound with lazy errors, so it shares the dispatcher of tree building
+    private final Executor saveExecutor;
+
+    @Inject
+    public AlgorithmRegistry(Config config, ActorSystem actorSystem) {
+        this(config, actorSystem.dispatchers().lookup("rainbow.build-dispatcher"));
+    }
+
+    public AlgorithmRegistry(Config config, Executor saveExecutor) {
+        this.maxBytes = config.getLong("registry.max_bytes");
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.spilling = new HashMap<>();
+        this.frequencies = new FrequencySketch(1024);
+        this.saveExecutor = saveExecutor;
+    }
+
+    public static String fileName(String _key) {
+        return Constants.DATASET_NAME + "-" + _key + ".raqt";
+    }
+
+    /**
+     * Get the entry of query.key, create it if it does not exist, and count a hit on it
+     *
+     * @param query
+     * @return null if query.algorithm is unknown
+     */
+    public synchronized Entry acquire(Query query) {
+        frequencies.increment(query.key);
+        Entry entry = entries.get(query.key);
+        if (entry == null) {
+            entry = spilling.remove(query.key);
+            if (entry == null) {
+                IAlgorithm algorithm = createAlgorithm(query.algorithm);
+                if (algorithm == null) {
+                    MyLogger.error(this.getClass(), "unknown algorithm: " + query.algorithm);
+                    return null;
+                }
+                entry = new Entry(query.key, algorithm);
+            }
+            entries.put(query.key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @return all entries, the least recently used first
+     */
+    public synchronized List<Entry> entries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * loading of the entry is finished, agents joining it are notified,
+     * if loaded algorithms exceed maxBytes, some of them are evicted
+     *
+     * @param entry
+     * @param _fromFile - true if the algorithm is read from its snapshot file, so it does not need to be written again
+     */
+    public void loaded(Entry entry, boolean _fromFile) {
+        if (_fromFile) {
+            synchronized (entry) {
+                entry.saved = CompletableFuture.completedFuture(true);
+            }
+        }
+        entry.loaded.complete(entry.algorithm);
+        for (Entry evicted : evict(entry)) {
+            spill(evicted);
+        }
+    }
+
+    /**
+     * loading of the entry failed, it is removed so that the next acquire() loads it again,
+     * agents joining it are notified
+     *
+     * @param entry
+     * @param e
+     */
+    public void failed(Entry entry, Throwable e) {
+        synchronized (this) {
+            entries.remove(entry.key, entry);
+        }
+        entry.loaded.completeExceptionally(e);
+    }
+
+    /**
+     * write the algorithm of the entry to its snapshot file, only once
+     *
+     * Note: with lazy errors, writing the snapshot computes all errors first, so it is done on saveExecutor
+     *
+     * @param entry
+     * @return completed with true when the file is written
+     */
+    public CompletableFuture<Boolean> save(Entry entry) {
+        synchronized (entry) {
+            if (entry.saved == null) {
+                String fileName = fileName(entry.key);
+                entry.saved = CompletableFuture.supplyAsync(() -> entry.algorithm.writeToFile(fileName), saveExecutor);
+            }
+            return entry.saved;
+        }
+    }
+
+    /**
+     * @param _candidate - the newly loaded entry
+     * @return entries removed to keep loaded algorithms within maxBytes
+     */
+    private synchronized List<Entry> evict(Entry _candidate) {
+        List<Entry> evicted = new ArrayList<>();
+        if (!entries.containsKey(_candidate.key)) return evicted;
+        long bytes = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.isLoaded()) bytes += entry.algorithm.estimatedBytes();
+        }
+        while (bytes > maxBytes) {
+            // algorithms being loaded are never evicted, other agents are waiting for them
+            Entry victim = null;
+            for (Entry entry : entries.values()) {
+                if (entry != _candidate && entry.isLoaded()) {
+                    victim = entry;
+                    break;
+                }
+            }
+            // the candidate alone exceeds maxBytes, keep it anyway
+            if (victim == null) break;
+            // admit the candidate only if it is used more frequently than the victim
+            if (frequencies.frequency(_candidate.key) < frequencies.frequency(victim.key)) {
+                victim = _candidate;
+            }
+            entries.remove(victim.key);
+            bytes -= victim.algorithm.estimatedBytes();
+            evicted.add(victim);
+            MyLogger.info(this.getClass(), "evicted algorithm: " + victim.key + ", loaded bytes: " + bytes);
+            if (victim == _candidate) break;
+        }
+        return evicted;
+    }
+
+    private void spill(Entry entry) {
+        // reloaded from database by a later request
+        if (!entry.algorithm.canWriteToFile()) return;
+        synchronized (this) {
+            spilling.put(entry.key, entry);
+        }
+        entry.spilled = save(entry).handle((success, e) -> {
+            if (e != null || !success) {
+                MyLogger.error(this.getClass(), "spill algorithm " + entry.key + " to file failed, it will be reloaded from database.");
+            }
+            synchronized (this) {
+                spilling.remove(entry.key, entry);
+            }
+            return null;
+        });
+    }
+
+    private IAlgorithm createAlgorithm(String _algorithm) {
+        switch (_algorithm) {
+            case "KDTreeExplorer":
+                return new KDTreeExplorer();
+            case "QuadTreeExplorer":
+                return new QuadTreeExplorer();
+            case "RAQuadTree":
+                return new RAQuadTree();
+            case "RAQuadTreeDistance":
+                return new RAQuadTreeDistance();
+            default:
+                return null;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import model.Point;
 import model.Query;
 
 import java.util.List;
+import java.util.function.ObjIntConsumer;
 
 public interface IAlgorithm {
 
@@ -24,6 +25,41 @@ public interface IAlgorithm {
      */
     byte[] answerQuery(Query query);
 
+    /**
+     * answer a query as a sequence of binary chunks,
+     * the first chunk is a binary message of a coarse result,
+     * each following chunk is a binary delta message with the records added to the previous chunks
+     *
+     * @param query
+     * @param chunks - accepts each chunk and its progress (percentage of the result sent so far, 100 - the last chunk)
+     */
+    default void answerQuery(Query query, ObjIntConsumer<byte[]> chunks) {
+        chunks.accept(answerQuery(query), 100);
+    }
+
+    /**
+     * estimate heap bytes used by the algorithm,
+     * from counters maintained during loading, without traversing its data structures
+     *
+     * @return
+     */
+    long estimatedBytes();
+
+    /**
+     * @return number of nodes of the index
+     */
+    long nodeCount();
+
+    /**
+     * @return number of points loaded into the algorithm
+     */
+    long pointCount();
+
+    /**
+     * @return true if the algorithm can be written to and read from a snapshot file
+     */
+    boolean canWriteToFile();
+
     boolean readFromFile(String fileName);
 
     boolean writeToFile(String fileName);
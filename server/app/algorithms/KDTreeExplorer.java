@@ -14,6 +14,8 @@ import static util.Mercator.*;
 public class KDTreeExplorer implements IAlgorithm {
     I2DIndex index;
     int totalNumberOfPoints = 0;
+    static final int NODE_BYTES = 72; // heap bytes of a KDTree node and its empty duplicates list
+    static final int DUPLICATE_BYTES = 24; // heap bytes of a duplicates list entry
 
     //-Timing-//
     static final boolean keepTiming = true;
@@ -115,7 +117,7 @@ public class KDTreeExplorer implements IAlgorithm {
         List<Point> allPoints = getPoints(lng0, lat0, lng1, lat1);
         MyTimer.stopTimer();
         double treeTime = MyTimer.durationSeconds();
-        MyTimer.temporaryTimer.put("treeTime", treeTime);
+        MyTimer.temporaryTimer().put("treeTime", treeTime);
         System.out.println("[KDTree Explorer] tree search got " + allPoints.size() + " data points.");
         System.out.println("[KDTree Explorer] tree search time: " + treeTime + " seconds.");
 
@@ -140,7 +142,7 @@ public class KDTreeExplorer implements IAlgorithm {
         }
         MyTimer.stopTimer();
         double buildBinaryTime = MyTimer.durationSeconds();
-        MyTimer.temporaryTimer.put("aggregateTime", buildBinaryTime);
+        MyTimer.temporaryTimer().put("aggregateTime", buildBinaryTime);
         System.out.println("[KDTree Explorer] build binary result with " + resultSize + " points.");
         System.out.println("[KDTree Explorer] build binary result time: " + buildBinaryTime + " seconds.");
 
@@ -149,6 +151,28 @@ public class KDTreeExplorer implements IAlgorithm {
         return messageBuilder.getBuffer();
     }
 
+    @Override
+    public long estimatedBytes() {
+        // duplicate points are linked to the node of their first occurrence
+        long duplicates = pointCount() - nodeCount();
+        return nodeCount() * NODE_BYTES + pointCount() * Constants.POINT_BYTES + duplicates * DUPLICATE_BYTES;
+    }
+
+    @Override
+    public long nodeCount() {
+        return this.index.nodeCount();
+    }
+
+    @Override
+    public long pointCount() {
+        return this.totalNumberOfPoints;
+    }
+
+    @Override
+    public boolean canWriteToFile() {
+        return false;
+    }
+
     @Override
     public boolean readFromFile(String fileName) {
         return false;
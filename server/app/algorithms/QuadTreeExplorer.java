@@ -84,6 +84,8 @@ public class QuadTreeExplorer implements IAlgorithm {
             if (this.samples == null && this.northWest == null) {
                 this.samples = new ArrayList<>();
                 this.samples.add(point);
+                filledNodesCount ++;
+                samplesCount ++;
                 this.rendering = aggregator.createRendering(oneNodeResolution);
                 aggregator.render(this.rendering, cX, cY, halfDimension, oneNodeResolution, point);
                 this.count = 1;
@@ -95,6 +97,7 @@ public class QuadTreeExplorer implements IAlgorithm {
             // if boundary is smaller than highestLevelNodeDimension, stop splitting, and make current node a leaf node.
             if (halfDimension * 2 / oneNodeResolution < highestLevelNodeDimension) {
                 this.samples.add(point);
+                samplesCount ++;
                 return true;
             }
 
@@ -112,7 +115,10 @@ public class QuadTreeExplorer implements IAlgorithm {
             boolean isDifferent = aggregator.render(this.rendering, cX, cY, halfDimension, oneNodeResolution, point);
             // if new rendering is different, store this point within samples
             // (only start storing samples from level 10)
-            if (level > 2 && isDifferent) this.samples.add(point);
+            if (level > 2 && isDifferent) {
+                this.samples.add(point);
+                samplesCount ++;
+            }
 
             // insert new point into corresponding quadrant
             if (insertNorthWest(cX, cY, halfDimension, point, aggregator, level + 1)) return true;
@@ -377,7 +383,12 @@ public class QuadTreeExplorer implements IAlgorithm {
     QuadTree quadTree;
     int totalNumberOfPoints = 0;
     int totalStoredNumberOfPoints = 0;
-    static long nodesCount = 0; // count quad-tree nodes
+    long nodesCount = 0; // count quad-tree nodes
+    long filledNodesCount = 0; // count quad-tree nodes with samples and rendering
+    long samplesCount = 0; // count samples stored on quad-tree nodes
+    long renderingBytes; // heap bytes of the rendering of a node
+    static final int NODE_BYTES = 48; // heap bytes of a QuadTree node: object header + fields, 8 bytes aligned
+    static final int SAMPLES_LIST_BYTES = 40; // heap bytes of an empty samples ArrayList
     static int lowestLevelForQuery = Integer.MAX_VALUE; // the lowest level of range searching for a query
     static double lowestPixelScale = Double.MAX_VALUE; // the lowest pixel scale of range searching for a query
     static int highestLevelForQuery = 0; // the highest level of range searching for a query
@@ -397,6 +408,7 @@ public class QuadTreeExplorer implements IAlgorithm {
         highestLevelNodeDimension = 1.0 / Math.pow(2, Constants.MAX_ZOOM);
 
         renderer = new DeckGLRenderer(Constants.RADIUS_IN_PIXELS);
+        renderingBytes = 16 + renderer.createRendering(oneNodeResolution).length;
 
         // initialize the timing map
         if (keepTiming) {
@@ -412,6 +424,7 @@ public class QuadTreeExplorer implements IAlgorithm {
 
         MyTimer.startTimer();
         this.totalNumberOfPoints += points.size();
+        // insert in batch order, samples kept by each node depend on the insertion order
         int count = 0;
         int skip = 0;
         for (Point point: points) {
@@ -492,7 +505,7 @@ public class QuadTreeExplorer implements IAlgorithm {
         MyTimer.stopTimer();
         double treeTime = MyTimer.durationSeconds();
 
-        MyTimer.temporaryTimer.put("treeTime", treeTime);
+        MyTimer.temporaryTimer().put("treeTime", treeTime);
         System.out.println("[QuadTree Explorer] tree search got " + points.size() + " data points.");
         System.out.println("[QuadTree Explorer] tree search time: " + treeTime + " seconds.");
 
@@ -517,7 +530,7 @@ public class QuadTreeExplorer implements IAlgorithm {
         }
         MyTimer.stopTimer();
         double buildBinaryTime = MyTimer.durationSeconds();
-        MyTimer.temporaryTimer.put("aggregateTime", buildBinaryTime);
+        MyTimer.temporaryTimer().put("aggregateTime", buildBinaryTime);
 
         System.out.println("[QuadTree Explorer] build binary result with  " + resultSize + " points.");
         System.out.println("[QuadTree Explorer] build binary result time: " + buildBinaryTime + " seconds.");
@@ -531,6 +544,29 @@ public class QuadTreeExplorer implements IAlgorithm {
         return messageBuilder.getBuffer();
     }
 
+    @Override
+    public long estimatedBytes() {
+        return nodeCount() * NODE_BYTES
+                + this.filledNodesCount * (SAMPLES_LIST_BYTES + renderingBytes)
+                + this.samplesCount * Integer.BYTES
+                + pointCount() * Constants.POINT_BYTES;
+    }
+
+    @Override
+    public long nodeCount() {
+        return this.nodesCount + 1;
+    }
+
+    @Override
+    public long pointCount() {
+        return this.totalStoredNumberOfPoints;
+    }
+
+    @Override
+    public boolean canWriteToFile() {
+        return false;
+    }
+
     @Override
     public boolean readFromFile(String fileName) {
         return false;
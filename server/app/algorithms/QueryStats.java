@@ -0,0 +1,24 @@
+package algorithms;
+
+import util.Constants;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stats of one query on a RA-QuadTree
+ *
+ *  - algorithm instances are shared by all agents, so each query keeps its own stats
+ *  - benefits are computed concurrently by the parallel search, so they are counted and timed by adders
+ */
+class QueryStats {
+    final int[] numberOfNodesStoppedAtLevels; // count how many nodes stopped at a certain level
+    final LongAdder computeBenefitTimes; // count how many times compute the benefit
+    final DoubleAdder computeBenefitTime; // seconds spent computing the benefit
+
+    QueryStats() {
+        this.numberOfNodesStoppedAtLevels = new int[Constants.MAX_ZOOM + 9 + 1];
+        this.computeBenefitTimes = new LongAdder();
+        this.computeBenefitTime = new DoubleAdder();
+    }
+}
@@ -7,6 +7,12 @@ import util.render.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjIntConsumer;
 
 import static util.Mercator.*;
 
@@ -15,12 +21,14 @@ public class RAQuadTree implements IAlgorithm {
     public class QuadTree {
         public Point sample;
         public int count; // count of subtree
-        public double[] errors; // errors between this sample and four children's samples for all zoom levels
+        public float[] errors; // errors between this sample and four children's samples for stored zoom levels, see errorZoomFrom
+        public boolean dirty; // subtree changed since last sample selection
 
         public QuadTree() {
             this.sample = null;
             this.count = 0;
-            this.errors = new double[Constants.MAX_ZOOM + 1];
+            this.errors = null; // allocated when the node gets its sample selected
+            this.dirty = true;
         }
 
         // children
@@ -29,63 +37,6 @@ public class RAQuadTree implements IAlgorithm {
         public QuadTree southWest;
         public QuadTree southEast;
 
-        /**
-         * Pre-order traverse the quadtree and write each node to one line in the buffered writer
-         *
-         * each node format:
-         *   level (int), cx (double), cy (double), halfDimension (double), count (int),
-         *   sample.x (double), sample.y (double), errors[0] (double), errors[1] (double), ...
-         *
-         * @param bufferedWriter
-         * @param _cX
-         * @param _cY
-         * @param _halfDimension
-         * @param _level
-         */
-        public void writeToFile(BufferedWriter bufferedWriter, double _cX, double _cY, double _halfDimension, int _level) throws IOException {
-            // write current node
-            bufferedWriter.write(String.valueOf(this.count));
-            bufferedWriter.write(",");
-            if (this.sample != null) {
-                bufferedWriter.write(String.valueOf(this.sample.getX()));
-                bufferedWriter.write(",");
-                bufferedWriter.write(String.valueOf(this.sample.getY()));
-            }
-            else {
-                bufferedWriter.write(",");
-            }
-            for (int zoom = 0; zoom <= Constants.MAX_ZOOM; zoom ++) {
-                bufferedWriter.write(",");
-                bufferedWriter.write(String.valueOf(this.errors[zoom]));
-            }
-            bufferedWriter.newLine();
-
-            // leaf node write an empty line for each child
-            if (this.northWest == null) {
-                // nw
-                bufferedWriter.write("");
-                bufferedWriter.newLine();
-                // ne
-                bufferedWriter.write("");
-                bufferedWriter.newLine();
-                // sw
-                bufferedWriter.write("");
-                bufferedWriter.newLine();
-                // se
-                bufferedWriter.write("");
-                bufferedWriter.newLine();
-                return;
-            }
-            else {
-                // recursively write the children
-                double halfDimension = _halfDimension / 2;
-                this.northWest.writeToFile(bufferedWriter, _cX - halfDimension, _cY - halfDimension, halfDimension, _level + 1);
-                this.northEast.writeToFile(bufferedWriter, _cX + halfDimension, _cY - halfDimension, halfDimension, _level + 1);
-                this.southWest.writeToFile(bufferedWriter, _cX - halfDimension, _cY + halfDimension, halfDimension, _level + 1);
-                this.southEast.writeToFile(bufferedWriter, _cX + halfDimension, _cY + halfDimension, halfDimension, _level + 1);
-            }
-        }
-
         /**
          * Pre-order traverse the quadtree and read each node from one line in the buffered reader
          *
@@ -126,8 +77,9 @@ public class RAQuadTree implements IAlgorithm {
                     node.sample = new Point(x, y);
                 }
 
+                double[] errors = new double[Constants.MAX_ZOOM + 1];
                 for (int zoom = 0; zoom <= Constants.MAX_ZOOM; zoom++) {
-                    node.errors[zoom] = Double.valueOf(attributes[i++]);
+                    errors[zoom] = Double.valueOf(attributes[i++]);
                 }
 
                 // recursively read the children
@@ -136,6 +88,14 @@ public class RAQuadTree implements IAlgorithm {
                 node.northEast = this.readFromFile(bufferedReader, _cX + halfDimension, _cY - halfDimension, halfDimension, _level + 1);
                 node.southWest = this.readFromFile(bufferedReader, _cX - halfDimension, _cY + halfDimension, halfDimension, _level + 1);
                 node.southEast = this.readFromFile(bufferedReader, _cX + halfDimension, _cY + halfDimension, halfDimension, _level + 1);
+
+                // only keep errors of stored zoom levels for internal node
+                if (node.northWest != null) {
+                    node.errors = new float[errorZoomCount(_level)];
+                    for (int j = 0; j < node.errors.length; j ++) {
+                        node.errors[j] = (float) errors[errorZoomFrom(_level) + j];
+                    }
+                }
                 return node;
             }
             catch (Exception e) {
@@ -187,6 +147,8 @@ public class RAQuadTree implements IAlgorithm {
             if (!containsPoint(cX, cY, halfDimension, point)) {
                 return false;
             }
+            // this subtree changes, its samples have to be selected again
+            this.dirty = true;
             // If this node is leaf and empty, put this point on this node
             if (this.sample == null && this.northWest == null) {
                 this.sample = point;
@@ -256,25 +218,7 @@ public class RAQuadTree implements IAlgorithm {
             this.northEast = new QuadTree();
             this.southWest = new QuadTree();
             this.southEast = new QuadTree();
-            nodesCount += 4;
-        }
-
-        class QEntry {
-            int level;
-            double ncX;
-            double ncY;
-            double nhalfDimension;
-            QuadTree node;
-            double benefit; // the benefit value if the take the best move
-
-            QEntry(int _level, double _ncX, double _ncY, double _nhalfDimension, QuadTree _node, double _benefit) {
-                level = _level;
-                ncX = _ncX;
-                ncY = _ncY;
-                nhalfDimension = _nhalfDimension;
-                node = _node;
-                benefit = _benefit;
-            }
+            nodesCount.addAndGet(4);
         }
 
         /**
@@ -292,57 +236,44 @@ public class RAQuadTree implements IAlgorithm {
          * @param _rhalfHeight
          * @param _zoom - zoom level of current query
          * @param _targetSampleSize
+         * @param _stats - stats of current query
          * @return
          */
         public List<Point> bfs(double _ncX, double _ncY, double _nhalfDimension,
                                double _rcX, double _rcY, double _rhalfWidth, double _rhalfHeight,
-                               int _zoom, int _targetSampleSize) {
+                               int _zoom, int _targetSampleSize, QueryStats _stats) {
 
             List<Point> result = new ArrayList<>();
 
             // explore larger estimatedProfit node first
-            PriorityQueue<QEntry> queue = new PriorityQueue<>(new Comparator<QEntry>() {
-                @Override
-                public int compare(QEntry o1, QEntry o2) {
-                    if (o2.benefit > o1.benefit)
-                        return 1;
-                    else if (o2.benefit < o1.benefit)
-                        return -1;
-                    else
-                        return 0;
-                }
-            });
+            BfsFrontier queue = BfsFrontier.acquire();
 
-            double rootBenefit = computeBenefit(_zoom, 0, this);
-            QEntry rootEntry = new QEntry(0, _ncX, _ncY, _nhalfDimension, this, rootBenefit);
+            double rootBenefit = computeBenefit(_zoom, 0, this, _ncX, _ncY, _nhalfDimension, _stats);
             // add root node
-            queue.add(rootEntry);
+            queue.add(0, this, 0, _ncX, _ncY, _nhalfDimension, rootBenefit);
             int availableSampleSize = _targetSampleSize - Constants.NODE_SAMPLE_SIZE;
 
-            while (queue.size() > 0) {
+            while (!queue.isEmpty()) {
 
                 // pick the largest benefit node
-                QEntry entry = queue.poll();
-                int level = entry.level;
-                double ncX = entry.ncX;
-                double ncY = entry.ncY;
-                double nhalfDimension = entry.nhalfDimension;
-                QuadTree node = entry.node;
-                double benefit = entry.benefit;
+                int entry = queue.poll();
+                int level = queue.level(entry);
+                double ncX = queue.ncX(entry);
+                double ncY = queue.ncY(entry);
+                double nhalfDimension = queue.nhalfDimension(entry);
+                QuadTree node = (QuadTree) queue.ref(entry);
+                double benefit = queue.benefit(entry);
                 int sampleSize = node.sample == null? 0: Constants.NODE_SAMPLE_SIZE;
 
-                // if the largest estimated benefit is 0 or enough samples, entering collecting samples mode
+                // if the largest estimated benefit is 0 or enough samples, entering collecting samples mode,
+                // all the other nodes in the queue are not expanded either, so collect them at once
                 if (benefit <= 0.0 || availableSampleSize <= 0) {
-                    //-DEBUG-//
-//                    System.out.println("[queue] level = " + level);
-//                    System.out.println("[queue] benefit = " + benefit);
-//                    System.out.println("[queue] sample size = " + sampleSize);
-                    //-DEBUG-//
-                    if (node.sample != null) {
-                        numberOfNodesStoppedAtLevels[level] ++;
-                        result.add(node.sample);
+                    node.collectSample(level, result, _stats);
+                    for (int i = 0; i < queue.heapSize(); i ++) {
+                        int slot = queue.heapSlot(i);
+                        ((QuadTree) queue.ref(slot)).collectSample(queue.level(slot), result, _stats);
                     }
-                    continue;
+                    break;
                 }
 
                 // otherwise, expand this node
@@ -355,9 +286,8 @@ public class RAQuadTree implements IAlgorithm {
                 cY = ncY - halfDimension;
                 // ignore this node if the range does not intersect with it
                 if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
-                    double benefitNW = computeBenefit(_zoom, level + 1, node.northWest);
-                    QEntry entryNW = new QEntry(level + 1, cX, cY, halfDimension, node.northWest, benefitNW);
-                    queue.add(entryNW);
+                    double benefitNW = computeBenefit(_zoom, level + 1, node.northWest, cX, cY, halfDimension, _stats);
+                    queue.add(0, node.northWest, level + 1, cX, cY, halfDimension, benefitNW);
                     if (node.northWest.sample != null) {
                         availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
                     }
@@ -368,9 +298,8 @@ public class RAQuadTree implements IAlgorithm {
                 cY = ncY - halfDimension;
                 // ignore this node if the range does not intersect with it
                 if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
-                    double benefitNE = computeBenefit(_zoom, level + 1, node.northEast);
-                    QEntry entryNE = new QEntry(level + 1, cX, cY, halfDimension, node.northEast, benefitNE);
-                    queue.add(entryNE);
+                    double benefitNE = computeBenefit(_zoom, level + 1, node.northEast, cX, cY, halfDimension, _stats);
+                    queue.add(0, node.northEast, level + 1, cX, cY, halfDimension, benefitNE);
                     if (node.northEast.sample != null) {
                         availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
                     }
@@ -381,9 +310,8 @@ public class RAQuadTree implements IAlgorithm {
                 cY = ncY + halfDimension;
                 // ignore this node if the range does not intersect with it
                 if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
-                    double benefitSW = computeBenefit(_zoom, level + 1, node.southWest);
-                    QEntry entrySW = new QEntry(level + 1, cX, cY, halfDimension, node.southWest, benefitSW);
-                    queue.add(entrySW);
+                    double benefitSW = computeBenefit(_zoom, level + 1, node.southWest, cX, cY, halfDimension, _stats);
+                    queue.add(0, node.southWest, level + 1, cX, cY, halfDimension, benefitSW);
                     if (node.southWest.sample != null) {
                         availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
                     }
@@ -394,31 +322,57 @@ public class RAQuadTree implements IAlgorithm {
                 cY = ncY + halfDimension;
                 // ignore this node if the range does not intersect with it
                 if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
-                    double benefitSE = computeBenefit(_zoom, level + 1, node.southEast);
-                    QEntry entrySE = new QEntry(level + 1, cX, cY, halfDimension, node.southEast, benefitSE);
-                    queue.add(entrySE);
+                    double benefitSE = computeBenefit(_zoom, level + 1, node.southEast, cX, cY, halfDimension, _stats);
+                    queue.add(0, node.southEast, level + 1, cX, cY, halfDimension, benefitSE);
                     if (node.southEast.sample != null) {
                         availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
                     }
                 }
             }
 
+            queue.release();
+
             //-DEBUG-//
             System.out.println("[availableSampleSize] = " + availableSampleSize);
 
             return result;
         }
 
+        void collectSample(int _level, List<Point> _result, QueryStats _stats) {
+            if (this.sample != null) {
+                _stats.numberOfNodesStoppedAtLevels[_level] ++;
+                _result.add(this.sample);
+            }
+        }
+
+        /**
+         * @param _level - level of this node
+         * @param _zoom
+         * @return error between this sample and four children's samples at given zoom level
+         */
+        public double error(int _level, int _zoom) {
+            if (this.errors == null) return 0.0;
+            int j = _zoom - errorZoomFrom(_level);
+            if (j < 0 || j >= this.errors.length) return 0.0;
+            return this.errors[j];
+        }
+
         /**
          * Post-order traverse the Quadtree,
-         * select the best sample for each node
+         * select the best sample for each node,
+         * subtrees not changed since last selection are skipped
          *
          * V1 - select the best from only its 4 children
-         *    - store errors between sample on node and samples on children for all resolutions
+         *    - store errors between sample on node and samples on children for all resolutions where they can be non-zero
          */
         public void selectSamples(double _cX, double _cY, double _halfDimension, int _level) {
+            // subtree not changed since last selection already has the best samples
+            if (!this.dirty) {
+                return;
+            }
             // leaf node already has the best sample
             if (this.northWest == null) {
+                this.dirty = false;
                 return;
             }
 
@@ -430,93 +384,410 @@ public class RAQuadTree implements IAlgorithm {
             this.southWest.selectSamples(_cX - halfDimension, _cY + halfDimension, halfDimension, _level + 1);
             this.southEast.selectSamples(_cX + halfDimension, _cY + halfDimension, halfDimension, _level + 1);
 
-            // render the four best samples on four children as the ground truth
-            byte[] rendering0 = renderer.createRendering(Constants.NODE_RESOLUTION);
-            if (this.northWest.sample != null) {
-                renderer.render(rendering0, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, this.northWest.sample);
-            }
-            if (this.northEast.sample != null) {
-                renderer.render(rendering0, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, this.northEast.sample);
-            }
-            if (this.southWest.sample != null) {
-                renderer.render(rendering0, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, this.southWest.sample);
-            }
-            if (this.southEast.sample != null) {
-                renderer.render(rendering0, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, this.southEast.sample);
+            this.selectSample(_cX, _cY, _halfDimension, _level);
+        }
+
+        /**
+         * error between the ground truth and rendering the candidate alone,
+         * the candidate is rendered on the pooled scratch rendering of current thread
+         */
+        double candidateError(RenderingPool _pool, byte[] _rendering0, Point _candidate,
+                              double _cX, double _cY, double _halfDimension) {
+            byte[] rendering = _pool.rendering(renderer, RenderingPool.CANDIDATE, Constants.NODE_RESOLUTION);
+            renderer.render(rendering, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, _candidate);
+            return errorMetric.error(_rendering0, rendering, renderer.realResolution(Constants.NODE_RESOLUTION));
+        }
+
+        /**
+         * select the best sample for this node from its 4 children,
+         * the 4 children must already have their best samples selected
+         */
+        void selectSample(double _cX, double _cY, double _halfDimension, int _level) {
+            // candidates are the best samples on the four children
+            RenderingPool pool = RenderingPool.get();
+            Point[] candidates = pool.candidates();
+            int count = 0;
+            if (this.northWest.sample != null) candidates[count ++] = this.northWest.sample;
+            if (this.northEast.sample != null) candidates[count ++] = this.northEast.sample;
+            if (this.southWest.sample != null) candidates[count ++] = this.southWest.sample;
+            if (this.southEast.sample != null) candidates[count ++] = this.southEast.sample;
+
+            byte[] rendering0 = pool.rendering(renderer, RenderingPool.GROUND_TRUTH, Constants.NODE_RESOLUTION);
+            double[] errors = pool.errors();
+            if (!renderer.candidateErrors(rendering0, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION,
+                    candidates, count, errorMetric, errors)) {
+                // render the four candidates as the ground truth
+                for (int k = 0; k < count; k ++) {
+                    renderer.render(rendering0, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, candidates[k]);
+                }
+                // render each candidate individually
+                for (int k = 0; k < count; k ++) {
+                    errors[k] = candidateError(pool, rendering0, candidates[k], _cX, _cY, _halfDimension);
+                }
             }
 
-            // render each candidate of the four children individually and select the minimum error one
+            // select the minimum error candidate
             double minError = Double.MAX_VALUE;
             Point bestSample = null;
-            if (this.northWest.sample != null) {
-                byte[] renderingNW = renderer.createRendering(Constants.NODE_RESOLUTION);
-                renderer.render(renderingNW, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, this.northWest.sample);
-                double error = errorMetric.error(rendering0, renderingNW, renderer.realResolution(Constants.NODE_RESOLUTION));
-                if (error < minError) {
-                    minError = error;
-                    bestSample = this.northWest.sample;
+            for (int k = 0; k < count; k ++) {
+                if (errors[k] < minError) {
+                    minError = errors[k];
+                    bestSample = candidates[k];
                 }
             }
-            if (this.northEast.sample != null) {
-                byte[] renderingNE = renderer.createRendering(Constants.NODE_RESOLUTION);
-                renderer.render(renderingNE, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, this.northEast.sample);
-                double error = errorMetric.error(rendering0, renderingNE, renderer.realResolution(Constants.NODE_RESOLUTION));
-                if (error < minError) {
-                    minError = error;
-                    bestSample = this.northEast.sample;
-                }
+            Arrays.fill(candidates, null);
+            // best sample stored on this node
+            this.sample = bestSample;
+
+            // for all stored zoom levels (resolutions),
+            // compute and store the errors between best sample and all four children's best samples
+            int zoomFrom = errorZoomFrom(_level);
+            if (this.errors == null) {
+                this.errors = new float[errorZoomCount(_level)];
+            }
+            // errors will be computed on first access
+            if (lazyErrors) {
+                Arrays.fill(this.errors, Float.NaN);
+                this.dirty = false;
+                return;
+            }
+            for (int zoom = zoomFrom; zoom <= Constants.MAX_ZOOM; zoom ++) {
+                this.errors[zoom - zoomFrom] = (float) computeErrorAgainstChildren(this, _cX, _cY, _halfDimension, pixelScale(zoom));
+            }
+            this.dirty = false;
+        }
+
+
+    }
+
+    /**
+     * Post-order traverse the Quadtree in parallel with fork/join,
+     * subtrees with less than Constants.PARALLEL_THRESHOLD points are traversed sequentially.
+     * Each node only depends on its own children, so the result is identical to QuadTree.selectSamples
+     */
+    class SelectSamplesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        QuadTree node;
+        double cX;
+        double cY;
+        double halfDimension;
+        int level;
+
+        SelectSamplesTask(QuadTree _node, double _cX, double _cY, double _halfDimension, int _level) {
+            node = _node;
+            cX = _cX;
+            cY = _cY;
+            halfDimension = _halfDimension;
+            level = _level;
+        }
+
+        @Override
+        protected void compute() {
+            // subtree not changed since last selection already has the best samples
+            if (!node.dirty) {
+                return;
+            }
+            // leaf node already has the best sample
+            if (node.northWest == null) {
+                node.dirty = false;
+                return;
+            }
+
+            if (node.count < Constants.PARALLEL_THRESHOLD) {
+                node.selectSamples(cX, cY, halfDimension, level);
+                return;
+            }
+
+            // select best samples for all four children in parallel first
+            double childHalfDimension = halfDimension / 2;
+            invokeAll(
+                    new SelectSamplesTask(node.northWest, cX - childHalfDimension, cY - childHalfDimension, childHalfDimension, level + 1),
+                    new SelectSamplesTask(node.northEast, cX + childHalfDimension, cY - childHalfDimension, childHalfDimension, level + 1),
+                    new SelectSamplesTask(node.southWest, cX - childHalfDimension, cY + childHalfDimension, childHalfDimension, level + 1),
+                    new SelectSamplesTask(node.southEast, cX + childHalfDimension, cY + childHalfDimension, childHalfDimension, level + 1)
+            );
+
+            node.selectSample(cX, cY, halfDimension, level);
+        }
+    }
+
+    /**
+     * Build a subtree in parallel with fork/join from a contiguous run of a Morton sorted batch,
+     * the run of each child is found by binary search on the keys and the four children are built independently,
+     * subtrees with less than Constants.PARALLEL_THRESHOLD points are built by a single thread.
+     *
+     * An empty subtree is built bottom-up from its run without visiting any ancestor again,
+     * nodes are allocated in the spatial order of the run.
+     * A non-empty subtree is extended by descending the run along existing nodes.
+     * Points in the same smallest node keep their order in the batch,
+     * so the result is identical to inserting the points one by one with QuadTree.insert
+     */
+    class InsertTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        QuadTree node;
+        double cX;
+        double cY;
+        double halfDimension;
+        int level;
+        Morton batch;
+        long firstKey; // smallest Morton key covered by this node
+        int from; // inclusive
+        int to; // exclusive
+
+        InsertTask(QuadTree _node, double _cX, double _cY, double _halfDimension, int _level,
+                   Morton _batch, long _firstKey, int _from, int _to) {
+            node = _node;
+            cX = _cX;
+            cY = _cY;
+            halfDimension = _halfDimension;
+            level = _level;
+            batch = _batch;
+            firstKey = _firstKey;
+            from = _from;
+            to = _to;
+        }
+
+        /**
+         * @return number of inserted points
+         */
+        @Override
+        protected Integer compute() {
+            int n = to - from;
+            if (n == 0) return 0;
+            // this subtree changes, its samples have to be selected again
+            node.dirty = true;
+
+            // If this node is leaf and empty, and only one point arrives, put this point on this node
+            if (node.sample == null && node.northWest == null && n == 1) {
+                node.sample = batch.points[from];
+                node.count = 1;
+                return 1;
             }
-            if (this.southWest.sample != null) {
-                byte[] renderingSW = renderer.createRendering(Constants.NODE_RESOLUTION);
-                renderer.render(renderingSW, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, this.southWest.sample);
-                double error = errorMetric.error(rendering0, renderingSW, renderer.realResolution(Constants.NODE_RESOLUTION));
-                if (error < minError) {
-                    minError = error;
-                    bestSample = this.southWest.sample;
+
+            // if boundary is smaller than highestLevelNodeDimension,
+            // stop splitting, this leaf node keeps its first point and skips the others
+            if (halfDimension * 2 < highestLevelNodeDimension) {
+                node.count += n;
+                if (node.sample == null) {
+                    node.sample = batch.points[from];
+                    return 1;
                 }
+                return 0;
             }
-            if (this.southEast.sample != null) {
-                byte[] renderingSE = renderer.createRendering(Constants.NODE_RESOLUTION);
-                renderer.render(renderingSE, _cX, _cY, _halfDimension, Constants.NODE_RESOLUTION, this.southEast.sample);
-                double error = errorMetric.error(rendering0, renderingSE, renderer.realResolution(Constants.NODE_RESOLUTION));
-                if (error < minError) {
-                    minError = error;
-                    bestSample = this.southEast.sample;
+
+            // Otherwise, at least 2 points end up in this node, subdivide
+            node.count += n;
+            if (node.northWest == null) {
+                node.subdivide();
+                // descend current node's point into corresponding quadrant, it was inserted before the whole batch
+                if (node.sample != null) {
+                    node.insertNorthWest(cX, cY, halfDimension, node.sample, level + 1);
+                    node.insertNorthEast(cX, cY, halfDimension, node.sample, level + 1);
+                    node.insertSouthWest(cX, cY, halfDimension, node.sample, level + 1);
+                    node.insertSouthEast(cX, cY, halfDimension, node.sample, level + 1);
+                    node.sample = null;
                 }
             }
-            // best sample stored on this node
-            this.sample = bestSample;
 
-            // for all zoom levels (resolutions),
-            // compute and store the errors between best sample and all four children's best samples
-            for (int zoom = 0; zoom <= Constants.MAX_ZOOM; zoom ++) {
-                double pixelScale = 1.0 / 256 / Math.pow(2, zoom);
-                this.errors[zoom] = computeErrorAgainstChildren(this, _cX, _cY, _halfDimension, pixelScale);
+            // split the run into four children's runs
+            long childKeys = batch.cellKeys(level + 1);
+            int toNW = Morton.lowerBound(batch.keys, from, to, firstKey + childKeys);
+            int toNE = Morton.lowerBound(batch.keys, toNW, to, firstKey + 2 * childKeys);
+            int toSW = Morton.lowerBound(batch.keys, toNE, to, firstKey + 3 * childKeys);
+            double childHalfDimension = halfDimension / 2;
+            InsertTask taskNW = new InsertTask(node.northWest, cX - childHalfDimension, cY - childHalfDimension, childHalfDimension, level + 1,
+                    batch, firstKey, from, toNW);
+            InsertTask taskNE = new InsertTask(node.northEast, cX + childHalfDimension, cY - childHalfDimension, childHalfDimension, level + 1,
+                    batch, firstKey + childKeys, toNW, toNE);
+            InsertTask taskSW = new InsertTask(node.southWest, cX - childHalfDimension, cY + childHalfDimension, childHalfDimension, level + 1,
+                    batch, firstKey + 2 * childKeys, toNE, toSW);
+            InsertTask taskSE = new InsertTask(node.southEast, cX + childHalfDimension, cY + childHalfDimension, childHalfDimension, level + 1,
+                    batch, firstKey + 3 * childKeys, toSW, to);
+
+            if (n < Constants.PARALLEL_THRESHOLD) {
+                return taskNW.compute() + taskNE.compute() + taskSW.compute() + taskSE.compute();
+            }
+            invokeAll(taskNW, taskNE, taskSW, taskSE);
+            return taskNW.join() + taskNE.join() + taskSW.join() + taskSE.join();
+        }
+    }
+
+    /**
+     * insert a batch of points into the QuadTree using all cores
+     *
+     * @param points
+     * @return number of inserted points
+     */
+    private int insert(List<Point> points) {
+        // keys go one level below the smallest node that can still be subdivided
+        int depth = (int) Math.round(-Math.log(highestLevelNodeDimension) / Math.log(2)) + 1;
+        Morton batch = Morton.sort(points, depth);
+        return ForkJoinPool.commonPool().invoke(new InsertTask(this.quadTree, 0.5, 0.5, 0.5, 0, batch, 0L, 0, batch.size));
+    }
+
+    /**
+     * select best sample for each node in the QuadTree using all cores
+     */
+    private void selectSamples() {
+        ForkJoinPool.commonPool().invoke(new SelectSamplesTask(this.quadTree, 0.5, 0.5, 0.5, 0));
+    }
+
+    /**
+     * Pre-order traverse the FrozenQuadTree in parallel with fork/join,
+     * compute the lazy errors of given zoom levels not computed yet for each internal node
+     */
+    class WarmUpErrorsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        FrozenQuadTree tree;
+        int node;
+        int level;
+        double cX;
+        double cY;
+        double halfDimension;
+        int[] zooms;
+
+        WarmUpErrorsTask(FrozenQuadTree _tree, int _node, int _level, double _cX, double _cY, double _halfDimension, int[] _zooms) {
+            tree = _tree;
+            node = _node;
+            level = _level;
+            cX = _cX;
+            cY = _cY;
+            halfDimension = _halfDimension;
+            zooms = _zooms;
+        }
+
+        @Override
+        protected void compute() {
+            if (tree.isLeaf(node)) {
+                return;
+            }
+
+            for (int zoom: zooms) {
+                error(tree, node, level, cX, cY, halfDimension, zoom);
+            }
+
+            double childHalfDimension = halfDimension / 2;
+            WarmUpErrorsTask[] tasks = new WarmUpErrorsTask[4];
+            for (int quadrant = FrozenQuadTree.NORTH_WEST; quadrant <= FrozenQuadTree.SOUTH_EAST; quadrant ++) {
+                double childCX = (quadrant & 1) == 0? cX - childHalfDimension: cX + childHalfDimension;
+                double childCY = (quadrant & 2) == 0? cY - childHalfDimension: cY + childHalfDimension;
+                tasks[quadrant] = new WarmUpErrorsTask(tree, tree.child(node, quadrant), level + 1, childCX, childCY, childHalfDimension, zooms);
+            }
+            if (tree.count(node) < Constants.PARALLEL_THRESHOLD) {
+                for (WarmUpErrorsTask task: tasks) {
+                    task.compute();
+                }
+            }
+            else {
+                invokeAll(tasks);
             }
         }
+    }
 
+    /**
+     * compute the lazy errors of given zoom levels for all nodes in the FrozenQuadTree using all cores
+     *
+     * @param zooms
+     */
+    private void warmUpErrors(int[] zooms) {
+        ForkJoinPool.commonPool().invoke(new WarmUpErrorsTask(this.frozenQuadTree, 0, 0, 0.5, 0.5, 0.5, zooms));
+    }
 
+    /**
+     * rank samples of given zoom levels in best first search order in background,
+     * queries of a zoom level are answered by its ranked samples once they are ready
+     *
+     * @param zooms
+     */
+    private void rankSamplesInBackground(int[] zooms) {
+        FrozenQuadTree tree = this.frozenQuadTree;
+        CompletableFuture.runAsync(() -> {
+            long startTime = System.nanoTime();
+            QueryStats stats = new QueryStats();
+            int[][] ranked = new int[Constants.MAX_ZOOM + 1][];
+            for (int zoom : zooms) {
+                if (zoom < 0 || zoom > Constants.MAX_ZOOM) continue;
+                ranked[zoom] = tree.rankSamples(Constants.RANKED_MAX_SAMPLES,
+                        (_tree, node, level, ncX, ncY, nhalfDimension) -> computeBenefit(zoom, level, _tree, node, ncX, ncY, nhalfDimension, stats));
+            }
+            this.rankedSamples = ranked;
+            long endTime = System.nanoTime();
+            System.out.println("[RA-QuadTree] rank samples for zoom levels " + Arrays.toString(zooms) + " is done! Time: " + ((double) (endTime - startTime) / 1000000000.0) + " seconds.");
+        }).exceptionally(e -> {
+            System.out.println("[RA-QuadTree] rank samples for zoom levels " + Arrays.toString(zooms) + " failed!");
+            e.printStackTrace();
+            return null;
+        });
     }
 
     public static double highestLevelNodeDimension;
 
-    public static IRenderer renderer;
+    /**
+     * errors of an internal node are stored as float and only for the zoom levels where they can be non-zero and used:
+     *  - at zoom levels < level - 9, the node is rendered with 0 pixels resolution, so its error is always 0
+     *  - nodes at levels < 8 are always expanded by bfs, so their errors are never used
+     *
+     * @param _level
+     * @return the first zoom level with error stored for a node at given level
+     */
+    static int errorZoomFrom(int _level) {
+        if (_level < 8) return Constants.MAX_ZOOM + 1;
+        return Math.max(0, _level - 9);
+    }
+
+    /**
+     * @param _level
+     * @return number of zoom levels with error stored for a node at given level
+     */
+    static int errorZoomCount(int _level) {
+        return Math.max(0, Constants.MAX_ZOOM + 1 - errorZoomFrom(_level));
+    }
+
+    // the deepest leaf level is one level below the smallest node that can still be subdivided
+    static int numberOfLevels() {
+        return Constants.MAX_ZOOM + 8 + 2;
+    }
+
+    static int[] errorZoomFromOfLevels() {
+        int[] errorZoomFrom = new int[numberOfLevels()];
+        for (int level = 0; level < errorZoomFrom.length; level ++) {
+            errorZoomFrom[level] = errorZoomFrom(level);
+        }
+        return errorZoomFrom;
+    }
+
+    static int[] errorZoomCountOfLevels() {
+        int[] errorZoomCount = new int[numberOfLevels()];
+        for (int level = 0; level < errorZoomCount.length; level ++) {
+            errorZoomCount[level] = errorZoomCount(level);
+        }
+        return errorZoomCount;
+    }
 
-    public static IErrorMetric errorMetric;
+    // renderer and error metric are stateless, so they can be shared by all sample selection threads
+    final IRenderer renderer;
+
+    final IErrorMetric errorMetric;
+
+    // snap errors are computed in closed form from the pixel cells of samples, without rendering
+    final boolean snapErrors;
+
+    // errors of a node are computed on first access instead of in selectSamples
+    final boolean lazyErrors;
 
     QuadTree quadTree;
+    FrozenQuadTree frozenQuadTree; // read-only compact layout of quadTree after data loading is finished
+    TileCache tileCache; // results of tiles searched on frozenQuadTree
+    volatile int[][] rankedSamples; // for each zoom level, nodes of frozenQuadTree in the order their samples are ranked, null if not ranked
     int totalNumberOfPoints = 0;
     int totalStoredNumberOfPoints = 0;
-    static long nodesCount = 0; // count quad-tree nodes
+    final AtomicLong nodesCount = new AtomicLong(); // count quad-tree nodes
+    static final int NODE_BYTES = 48; // heap bytes of a QuadTree node: object header + fields, 8 bytes aligned, before errors are allocated
     boolean finish = false; // loading data finish flag
 
-    /** For query stats */
-    static int[] numberOfNodesStoppedAtLevels; // for current query, count how many nodes stopped at a certain level
-    static int computeBenefitTimes; // for current query, count how many times compute the benefit
-
-    /** For query time analysis */
-    static Map<String, Double> times; // for current query, store times for different parts
-
     //-Timing-//
     static final boolean keepTiming = true;
     Map<String, Double> timing;
@@ -524,14 +795,17 @@ public class RAQuadTree implements IAlgorithm {
 
     public RAQuadTree() {
         this.quadTree = new QuadTree();
+        this.tileCache = new TileCache(Constants.TILE_CACHE_BYTES);
 
         // zoom level 0 is fixed with dimension 1.0 / 256 (because one tile of the base map is 256px x 256px)
         highestLevelNodeDimension = 1.0 / 256 / Math.pow(2, Constants.MAX_ZOOM);
 
+        lazyErrors = Constants.LAZY_ERRORS;
+
         switch (Constants.RENDERING_FUNCTION.toLowerCase()) {
             case "deckgl":
                 System.out.println("[RA-QuadTree] rendering function = Deck.GL");
-                renderer =  new DeckGLRenderer(Constants.RADIUS_IN_PIXELS);
+                renderer =  new DeckGLRenderer(Constants.RADIUS_IN_PIXELS, Constants.STENCIL_STEPS);
                 switch (Constants.ERROR_FUNCTION.toLowerCase()) {
                     case "l2":
                         System.out.println("[RA-QuadTree] error function = L2");
@@ -543,6 +817,20 @@ public class RAQuadTree implements IAlgorithm {
                         errorMetric = new L1Error();
                 }
                 break;
+            case "deckgl_gray":
+                System.out.println("[RA-QuadTree] rendering function = Deck.GL gray");
+                renderer =  new DeckGLGrayRenderer(Constants.RADIUS_IN_PIXELS, Constants.STENCIL_STEPS);
+                switch (Constants.ERROR_FUNCTION.toLowerCase()) {
+                    case "l2":
+                        System.out.println("[RA-QuadTree] error function = Gray L2");
+                        errorMetric = new GrayL2Error();
+                        break;
+                    case "l1":
+                    default:
+                        System.out.println("[RA-QuadTree] error function = Gray L1");
+                        errorMetric = new GrayL1Error();
+                }
+                break;
             case "snap":
             default:
                 System.out.println("[RA-QuadTree] rendering function = Snap");
@@ -558,6 +846,7 @@ public class RAQuadTree implements IAlgorithm {
                         errorMetric = new SnapL1Error();
                 }
         }
+        snapErrors = renderer instanceof SnapRenderer;
 
         // initialize the timing map
         if (keepTiming) {
@@ -565,28 +854,72 @@ public class RAQuadTree implements IAlgorithm {
             timing.put("total", 0.0);
         }
 
-        /** For query stats */
-        numberOfNodesStoppedAtLevels = new int[Constants.MAX_ZOOM + 9 + 1];
+        MyMemory.printMemory();
+    }
+
+    @Override
+    public long estimatedBytes() {
+        if (this.frozenQuadTree != null) {
+            return this.frozenQuadTree.heapBytes() + this.tileCache.bytes();
+        }
+        // points skipped by the smallest nodes are not kept
+        return nodeCount() * NODE_BYTES + this.totalStoredNumberOfPoints * Constants.POINT_BYTES;
+    }
+
+    @Override
+    public long nodeCount() {
+        if (this.frozenQuadTree != null) {
+            return this.frozenQuadTree.size();
+        }
+        return this.nodesCount.get() + 1;
+    }
 
-        /** For query time analysis */
-        times = new HashMap<>();
+    /**
+     * @return count of the root node, before and after freezing, also for a tree read from file
+     */
+    @Override
+    public long pointCount() {
+        if (this.frozenQuadTree != null) {
+            return this.frozenQuadTree.size() == 0? 0: this.frozenQuadTree.count(0);
+        }
+        return this.quadTree.count;
+    }
 
-        MyMemory.printMemory();
+    @Override
+    public boolean canWriteToFile() {
+        return true;
     }
 
     public boolean readFromFile(String fileName) {
         System.out.println("[RA-QuadTree] read from file " + fileName + " ... ...");
 
         try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
             //--time--//
             long startTime = System.nanoTime();
-            this.quadTree = quadTree.readFromFile(bufferedReader, 0.5, 0.5, 0.5, 0);
-            bufferedReader.close();
+            if (FrozenQuadTree.isSnapshot(fileName)) {
+                // binary snapshot is queried in place, no deserialization is needed
+                FrozenQuadTree snapshot = MappedFrozenQuadTree.mapFromFile(fileName);
+                if (!snapshot.hasErrorLayout(errorZoomFromOfLevels(), errorZoomCountOfLevels())) {
+                    System.out.println("[RA-QuadTree] read from file " + fileName + " failed! snapshot has errors for a different max zoom level.");
+                    return false;
+                }
+                this.frozenQuadTree = snapshot;
+            }
+            else {
+                // legacy csv format
+                BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+                QuadTree root = new QuadTree().readFromFile(bufferedReader, 0.5, 0.5, 0.5, 0);
+                bufferedReader.close();
+                this.frozenQuadTree = freeze(root);
+            }
+            this.quadTree = null;
             //--time--//
             long endTime = System.nanoTime();
             System.out.println("[RA-QuadTree] read from file " + fileName + " done! Time: " + ((double) (endTime - startTime) / 1000000000.0) + " seconds.");
             finish = true;
+            if (Constants.RANKED_ZOOMS.length > 0) {
+                rankSamplesInBackground(Constants.RANKED_ZOOMS.clone());
+            }
             return true;
         } catch (IOException e) {
             System.out.println("[RA-QuadTree] read from file " + fileName + " failed!");
@@ -598,15 +931,23 @@ public class RAQuadTree implements IAlgorithm {
     public boolean writeToFile(String fileName) {
         System.out.println("[RA-QuadTree] write to file " + fileName + " ... ...");
 
+        if (this.frozenQuadTree == null) {
+            System.out.println("[RA-QuadTree] write to file " + fileName + " failed! data loading is not finished.");
+            return false;
+        }
+
         try {
-            File file = new File(fileName);
-            FileOutputStream fileOutputStream = new FileOutputStream(file);
-            BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(fileOutputStream));
             //--time--//
             long startTime = System.nanoTime();
-            quadTree.writeToFile(bufferedWriter, 0.5, 0.5, 0.5, 0);
-            bufferedWriter.close();
-            fileOutputStream.close();
+            // a snapshot always has all errors computed
+            if (lazyErrors) {
+                int[] allZooms = new int[Constants.MAX_ZOOM + 1];
+                for (int zoom = 0; zoom <= Constants.MAX_ZOOM; zoom ++) {
+                    allZooms[zoom] = zoom;
+                }
+                warmUpErrors(allZooms);
+            }
+            this.frozenQuadTree.writeToFile(fileName);
             //--time--//
             long endTime = System.nanoTime();
             System.out.println("[RA-QuadTree] write to file " + fileName + " done! Time: " + ((double) (endTime - startTime) / 1000000000.0) + " seconds.");
@@ -620,20 +961,53 @@ public class RAQuadTree implements IAlgorithm {
         return false;
     }
 
+    /**
+     * compact the QuadTree into a read-only FrozenQuadTree,
+     * nodes are visited in BFS order so that siblings are stored contiguously
+     *
+     * @param _root
+     * @return
+     */
+    private FrozenQuadTree freeze(QuadTree _root) {
+        FrozenQuadTree frozen = new FrozenQuadTree(errorZoomFromOfLevels(), errorZoomCountOfLevels());
+        Queue<QuadTree> queue = new ArrayDeque<>();
+        frozen.append(_root.count, _root.sample);
+        queue.add(_root);
+        int node = 0;
+        int level = 0;
+        int levelEnd = 1; // nodes of next level start after the children of all nodes of this level
+        while (!queue.isEmpty()) {
+            QuadTree current = queue.poll();
+            if (node == levelEnd) {
+                level ++;
+                levelEnd = frozen.size();
+            }
+            if (current.northWest != null) {
+                frozen.expand(node, level, current.errors);
+                frozen.append(current.northWest.count, current.northWest.sample);
+                frozen.append(current.northEast.count, current.northEast.sample);
+                frozen.append(current.southWest.count, current.southWest.sample);
+                frozen.append(current.southEast.count, current.southEast.sample);
+                queue.add(current.northWest);
+                queue.add(current.northEast);
+                queue.add(current.southWest);
+                queue.add(current.southEast);
+            }
+            node ++;
+        }
+        frozen.trim();
+        return frozen;
+    }
+
     public void load(List<Point> points) {
         System.out.println("[RA-QuadTree] loading " + points.size() + " points ... ...");
 
         MyTimer.startTimer();
         this.totalNumberOfPoints += points.size();
-        int count = 0;
-        int skip = 0;
         MyTimer.startTimer();
-        for (Point point: points) {
-            if (this.quadTree.insert(0.5, 0.5, 0.5, lngLatToXY(point), 0))
-                count ++;
-            else
-                skip ++;
-        }
+        points.parallelStream().forEach(point -> lngLatToXY(point));
+        int count = this.insert(points);
+        int skip = points.size() - count;
         MyTimer.stopTimer();
         double insertTime = MyTimer.durationSeconds();
         this.totalStoredNumberOfPoints += count;
@@ -664,79 +1038,229 @@ public class RAQuadTree implements IAlgorithm {
         this.finish = true;
         // select best sample for each node in the QuadTree
         MyTimer.startTimer();
-        this.quadTree.selectSamples(0.5, 0.5, 0.5, 0);
+        this.selectSamples();
         MyTimer.stopTimer();
         double selectSamplesTime = MyTimer.durationSeconds();
         System.out.println("==== Data loading finished ====");
         System.out.println("[RA-QuadTree] select best sample for each node is done!");
         System.out.println("[RA-QuadTree] sample selection time: " + selectSamplesTime + " seconds.");
+
+        // compact the QuadTree into parallel arrays and drop the object graph
+        MyTimer.startTimer();
+        this.frozenQuadTree = freeze(this.quadTree);
+        this.quadTree = null;
+        MyTimer.stopTimer();
+        double freezeTime = MyTimer.durationSeconds();
+        System.out.println("[RA-QuadTree] freeze " + this.frozenQuadTree.size() + " nodes into compact layout is done!");
+        System.out.println("[RA-QuadTree] freeze time: " + freezeTime + " seconds.");
+        MyMemory.printMemory();
+
+        // compute lazy errors of popular zoom levels in background
+        if (lazyErrors && Constants.WARMUP_ZOOMS.length > 0) {
+            int[] zooms = Constants.WARMUP_ZOOMS.clone();
+            CompletableFuture.runAsync(() -> {
+                long startTime = System.nanoTime();
+                warmUpErrors(zooms);
+                long endTime = System.nanoTime();
+                System.out.println("[RA-QuadTree] warm up errors for zoom levels " + Arrays.toString(zooms) + " is done! Time: " + ((double) (endTime - startTime) / 1000000000.0) + " seconds.");
+            });
+        }
+
+        if (Constants.RANKED_ZOOMS.length > 0) {
+            rankSamplesInBackground(Constants.RANKED_ZOOMS.clone());
+        }
     }
 
-    public static double computeErrorAgainstChildren(QuadTree _node, double _ncX, double _ncY, double _nhalfDimension,
+    public double computeErrorAgainstChildren(QuadTree _node, double _ncX, double _ncY, double _nhalfDimension,
                                                      double _rPixelScale) {
         // if already leaf, benefit is 0.0, no need to expand it
         if (_node.northWest == null) return 0.0;
 
+        return computeErrorAgainstChildren(_node.sample, _node.northWest.sample, _node.northEast.sample,
+                _node.southWest.sample, _node.southEast.sample, _ncX, _ncY, _nhalfDimension, _rPixelScale);
+    }
+
+    public double computeErrorAgainstChildren(FrozenQuadTree _tree, int _node, double _ncX, double _ncY, double _nhalfDimension,
+                                              double _rPixelScale) {
+        // if already leaf, benefit is 0.0, no need to expand it
+        if (_tree.isLeaf(_node)) return 0.0;
+
+        return computeErrorAgainstChildren(sampleOf(_tree, _node),
+                sampleOf(_tree, _tree.child(_node, FrozenQuadTree.NORTH_WEST)),
+                sampleOf(_tree, _tree.child(_node, FrozenQuadTree.NORTH_EAST)),
+                sampleOf(_tree, _tree.child(_node, FrozenQuadTree.SOUTH_WEST)),
+                sampleOf(_tree, _tree.child(_node, FrozenQuadTree.SOUTH_EAST)),
+                _ncX, _ncY, _nhalfDimension, _rPixelScale);
+    }
+
+    private static Point sampleOf(FrozenQuadTree _tree, int _node) {
+        return _tree.hasSample(_node)? new Point(_tree.sampleX(_node), _tree.sampleY(_node)): null;
+    }
+
+    /**
+     * error between rendering the sample of a node and rendering the samples of its four children
+     *
+     * @param _sample - null if no sample
+     * @param _sampleNW - null if no sample
+     * @param _sampleNE - null if no sample
+     * @param _sampleSW - null if no sample
+     * @param _sampleSE - null if no sample
+     * @param _ncX
+     * @param _ncY
+     * @param _nhalfDimension
+     * @param _rPixelScale
+     * @return
+     */
+    double computeErrorAgainstChildren(Point _sample, Point _sampleNW, Point _sampleNE, Point _sampleSW, Point _sampleSE,
+                                       double _ncX, double _ncY, double _nhalfDimension, double _rPixelScale) {
         // get the resolution for given _node as piece of the result
         int resolution = (int) Math.round(2 * _nhalfDimension / _rPixelScale);
 
         // TODO - verify for DeckGLRenderer
         if (resolution == 0) return 0.0;
 
+        if (snapErrors) {
+            return snapErrorAgainstChildren(_sample, _sampleNW, _sampleNE, _sampleSW, _sampleSE,
+                    _ncX, _ncY, _nhalfDimension, resolution, resolution > 4 * Constants.NODE_SAMPLE_SIZE);
+        }
+
         double error;
+        // scratch renderings of current thread, reused across nodes and zoom levels
+        RenderingPool pool = RenderingPool.get();
 
         if (resolution > 4 * Constants.NODE_SAMPLE_SIZE) {
             // render the point on node
-            // for pixel list rendering, background is always an empty list
-            List<Pixel> rendering1 = new ArrayList<>();
-            if (_node.sample != null) {
-                renderer.render(rendering1, _ncX, _ncY, _nhalfDimension, resolution, _node.sample);
+            // for sparse rendering, background is always empty
+            SparseRendering rendering1 = pool.sparseRendering(RenderingPool.NODE);
+            if (_sample != null) {
+                renderer.render(rendering1, _ncX, _ncY, _nhalfDimension, resolution, _sample);
             }
             // render the 4 children points
-            // for pixel list rendering, background is always an empty list
-            List<Pixel> rendering2 = new ArrayList<>();
-            if (_node.northWest.sample != null) {
-                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _node.northWest.sample);
+            // for sparse rendering, background is always empty
+            SparseRendering rendering2 = pool.sparseRendering(RenderingPool.CHILDREN);
+            if (_sampleNW != null) {
+                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _sampleNW);
             }
-            if (_node.northEast.sample != null) {
-                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _node.northEast.sample);
+            if (_sampleNE != null) {
+                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _sampleNE);
             }
-            if (_node.southWest.sample != null) {
-                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _node.southWest.sample);
+            if (_sampleSW != null) {
+                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _sampleSW);
             }
-            if (_node.southEast.sample != null) {
-                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _node.southEast.sample);
+            if (_sampleSE != null) {
+                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _sampleSE);
             }
             error = errorMetric.error(rendering1, rendering2, renderer.realResolution(resolution));
         }
         // otherwise, use byte array rendering
         else {
             // render the point on node
-            byte[] rendering1 = renderer.createRendering(resolution);
-            if (_node.sample != null) {
-                renderer.render(rendering1, _ncX, _ncY, _nhalfDimension, resolution, _node.sample);
+            byte[] rendering1 = pool.rendering(renderer, RenderingPool.NODE, resolution);
+            if (_sample != null) {
+                renderer.render(rendering1, _ncX, _ncY, _nhalfDimension, resolution, _sample);
             }
             // render the 4 children points
-            byte[] rendering2 = renderer.createRendering(resolution);
-            if (_node.northWest.sample != null) {
-                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _node.northWest.sample);
+            byte[] rendering2 = pool.rendering(renderer, RenderingPool.CHILDREN, resolution);
+            if (_sampleNW != null) {
+                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _sampleNW);
             }
-            if (_node.northEast.sample != null) {
-                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _node.northEast.sample);
+            if (_sampleNE != null) {
+                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _sampleNE);
             }
-            if (_node.southWest.sample != null) {
-                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _node.southWest.sample);
+            if (_sampleSW != null) {
+                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _sampleSW);
             }
-            if (_node.southEast.sample != null) {
-                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _node.southEast.sample);
+            if (_sampleSE != null) {
+                renderer.render(rendering2, _ncX, _ncY, _nhalfDimension, resolution, _sampleSE);
             }
             error = errorMetric.error(rendering1, rendering2, renderer.realResolution(resolution));
         }
         return error;
     }
 
-    public static double computeBenefit(int _zoom, int _level, QuadTree _node) {
-        computeBenefitTimes ++;
+    /**
+     * snap error between a node's sample and its four children's samples in closed form,
+     * identical to rendering them with SnapRenderer and comparing with SnapL1Error / SnapL2Error
+     *
+     *  - pixels are 0 / 1 bits, so the error is the number of cells set in exactly one of the two renderings,
+     *    i.e. [1 if sample] + [distinct cells of children] - [2 if the cell of sample is also a cell of a child]
+     *
+     * @param _sample - null if no sample
+     * @param _sampleNW - null if no sample
+     * @param _sampleNE - null if no sample
+     * @param _sampleSW - null if no sample
+     * @param _sampleSE - null if no sample
+     * @param _ncX
+     * @param _ncY
+     * @param _nhalfDimension
+     * @param _resolution
+     * @param _sparse - cells as in the sparse rendering (true) or byte[] rendering (false) used for this resolution
+     * @return
+     */
+    static double snapErrorAgainstChildren(Point _sample, Point _sampleNW, Point _sampleNE, Point _sampleSW, Point _sampleSE,
+                                           double _ncX, double _ncY, double _nhalfDimension, int _resolution, boolean _sparse) {
+        long cellNW = snapCell(_sampleNW, _ncX, _ncY, _nhalfDimension, _resolution, _sparse);
+        long cellNE = snapCell(_sampleNE, _ncX, _ncY, _nhalfDimension, _resolution, _sparse);
+        long cellSW = snapCell(_sampleSW, _ncX, _ncY, _nhalfDimension, _resolution, _sparse);
+        long cellSE = snapCell(_sampleSE, _ncX, _ncY, _nhalfDimension, _resolution, _sparse);
+        int children = 0;
+        if (cellNW != NO_CELL) children ++;
+        if (cellNE != NO_CELL && cellNE != cellNW) children ++;
+        if (cellSW != NO_CELL && cellSW != cellNW && cellSW != cellNE) children ++;
+        if (cellSE != NO_CELL && cellSE != cellNW && cellSE != cellNE && cellSE != cellSW) children ++;
+
+        if (_sample == null) return children;
+        long cell = snapCell(_sample, _ncX, _ncY, _nhalfDimension, _resolution, _sparse);
+        boolean covered = cell == cellNW || cell == cellNE || cell == cellSW || cell == cellSE;
+        return 1 + children - (covered? 2: 0);
+    }
+
+    private static final long NO_CELL = Long.MIN_VALUE;
+
+    private static long snapCell(Point _point, double _ncX, double _ncY, double _nhalfDimension, int _resolution, boolean _sparse) {
+        if (_point == null) return NO_CELL;
+        return SnapRenderer.cell(_ncX, _ncY, _nhalfDimension, _resolution, _point, _sparse);
+    }
+
+    /**
+     * error of an internal node at given zoom level,
+     * with lazy errors, it is computed on first access and memoized on the node
+     *
+     * @param _node
+     * @param _level
+     * @param _ncX
+     * @param _ncY
+     * @param _nhalfDimension
+     * @param _zoom
+     * @return
+     */
+    double error(QuadTree _node, int _level, double _ncX, double _ncY, double _nhalfDimension, int _zoom) {
+        double error = _node.error(_level, _zoom);
+        if (Double.isNaN(error)) {
+            float computed = (float) computeErrorAgainstChildren(_node, _ncX, _ncY, _nhalfDimension, pixelScale(_zoom));
+            _node.errors[_zoom - errorZoomFrom(_level)] = computed;
+            error = computed;
+        }
+        return error;
+    }
+
+    double error(FrozenQuadTree _tree, int _node, int _level, double _ncX, double _ncY, double _nhalfDimension, int _zoom) {
+        double error = _tree.error(_node, _level, _zoom);
+        if (Double.isNaN(error)) {
+            float computed = (float) computeErrorAgainstChildren(_tree, _node, _ncX, _ncY, _nhalfDimension, pixelScale(_zoom));
+            _tree.setError(_node, _level, _zoom, computed);
+            error = computed;
+        }
+        return error;
+    }
+
+    static double pixelScale(int _zoom) {
+        return 1.0 / 256 / Math.pow(2, _zoom);
+    }
+
+    public double computeBenefit(int _zoom, int _level, QuadTree _node, double _ncX, double _ncY, double _nhalfDimension,
+                                 QueryStats _stats) {
+        _stats.computeBenefitTimes.increment();
 
         //--time--//
         long startTime = System.nanoTime();
@@ -747,7 +1271,7 @@ public class RAQuadTree implements IAlgorithm {
         // for levels < zoom level 0 (2^8 = 256, zoom level 0 has 256px resolution), always expand.
         if (_level < 8) return Double.MAX_VALUE;
 
-        double error = _node.errors[_zoom];
+        double error = error(_node, _level, _ncX, _ncY, _nhalfDimension, _zoom);
 
         double gain = error * Math.log(_node.count);
         int sampleSize = (_node.sample == null? 0: 1);
@@ -760,7 +1284,42 @@ public class RAQuadTree implements IAlgorithm {
 
         //--time--//
         long endTime = System.nanoTime();
-        times.put("computeBenefit", times.get("computeBenefit") + ((double) (endTime - startTime) / 1000000000.0));
+        _stats.computeBenefitTime.add((double) (endTime - startTime) / 1000000000.0);
+
+        if (cost == 0) {
+            return Double.MAX_VALUE;
+        }
+        else {
+            return gain / (double) cost;
+        }
+    }
+
+    public double computeBenefit(int _zoom, int _level, FrozenQuadTree _tree, int _node,
+                                 double _ncX, double _ncY, double _nhalfDimension, QueryStats _stats) {
+        _stats.computeBenefitTimes.increment();
+
+        //--time--//
+        long startTime = System.nanoTime();
+
+        // for leaf node, it can not be expanded at all.
+        if (_tree.isLeaf(_node)) return 0.0;
+
+        // for levels < zoom level 0 (2^8 = 256, zoom level 0 has 256px resolution), always expand.
+        if (_level < 8) return Double.MAX_VALUE;
+
+        double error = error(_tree, _node, _level, _ncX, _ncY, _nhalfDimension, _zoom);
+
+        double gain = error * Math.log(_tree.count(_node));
+        int sampleSize = (_tree.hasSample(_node)? 1: 0);
+        int sampleSizeOfChildren = 0;
+        for (int quadrant = FrozenQuadTree.NORTH_WEST; quadrant <= FrozenQuadTree.SOUTH_EAST; quadrant ++) {
+            sampleSizeOfChildren += (_tree.hasSample(_tree.child(_node, quadrant))? 1: 0);
+        }
+        int cost = sampleSizeOfChildren - sampleSize;
+
+        //--time--//
+        long endTime = System.nanoTime();
+        _stats.computeBenefitTime.add((double) (endTime - startTime) / 1000000000.0);
 
         if (cost == 0) {
             return Double.MAX_VALUE;
@@ -774,8 +1333,8 @@ public class RAQuadTree implements IAlgorithm {
 
         if (!this.finish) {
             // System.out.println("[RA-QuadTree] has not finished loading data, will not answer this query!");
-            // MyTimer.temporaryTimer.put("treeTime", 0.0);
-            // MyTimer.temporaryTimer.put("aggregateTime", 0.0);
+            // MyTimer.temporaryTimer().put("treeTime", 0.0);
+            // MyTimer.temporaryTimer().put("aggregateTime", 0.0);
             // BinaryMessageBuilder messageBuilder = new BinaryMessageBuilder();
             // double lng = xLng(0.5);
             // double lat = yLat(0.5);
@@ -783,7 +1342,7 @@ public class RAQuadTree implements IAlgorithm {
             // return messageBuilder.getBuffer();
             System.out.println("[RA-QuadTree] has not finished loading data, select samples temporarily for progressive results!");
             MyTimer.startTimer();
-            this.quadTree.selectSamples(0.5, 0.5, 0.5, 0);
+            this.selectSamples();
             MyTimer.stopTimer();
             double selectSamplesTime = MyTimer.durationSeconds();
             System.out.println("[RA-QuadTree] sample selection time: " + selectSamplesTime + " seconds.");
@@ -823,39 +1382,74 @@ public class RAQuadTree implements IAlgorithm {
                 "pixelScale = " + pixelScale + ";");
 
         /** For query stats*/
-        for (int i = 0; i <= Constants.MAX_ZOOM + 9; i ++) numberOfNodesStoppedAtLevels[i] = 0;
-        computeBenefitTimes = 0;
-
-        /** For query time analysis */
-        times.put("computeBenefit", 0.0);
+        QueryStats stats = new QueryStats();
 
         MyTimer.startTimer();
         System.out.println("[RA-QuadTree] is doing a best first search with sampleSize = " + sampleSize + ".");
-        List<Point> points = this.quadTree.bfs(0.5, 0.5, 0.5,
-                rcX, rcY, rhalfWidth, rhalfHeight, zoom, sampleSize);
+        List<Point> points = null;
+        List<double[]> tileResults = null; // longitude/latitude pairs of samples of each tile
+        FrozenQuadTree.Benefit benefit = (tree, node, level, ncX, ncY, nhalfDimension) -> computeBenefit(zoom, level, tree, node, ncX, ncY, nhalfDimension, stats);
+        int[][] ranked = this.rankedSamples;
+        if (ranked != null && zoom >= 0 && zoom < ranked.length && ranked[zoom] != null) {
+            // read the samples in range from the ranked samples of this zoom level, without searching the tree
+            points = this.frozenQuadTree.rankedRangeSearch(ranked[zoom], iX0, iY1, iX1, iY0, sampleSize,
+                    (long) sampleSize * Constants.RANKED_MAX_SCAN_FACTOR, ranked[zoom].length < Constants.RANKED_MAX_SAMPLES);
+        }
+        if (points != null) {
+            System.out.println("[RA-QuadTree] answered by ranked samples of zoom level " + zoom + ".");
+        }
+        else if (this.frozenQuadTree != null && zoom <= TileCache.MAX_ZOOM
+                && FrozenQuadTree.numberOfTiles(zoom, iX0, iY1, iX1, iY0) <= Constants.MAX_QUERY_TILES) {
+            // search tile by tile, so that results of tiles shared by panned or zoomed viewports are reused
+            tileResults = this.frozenQuadTree.bfsTiles(zoom, iX0, iY1, iX1, iY0, sampleSize, benefit,
+                    this.tileCache, stats.numberOfNodesStoppedAtLevels);
+        }
+        else if (this.frozenQuadTree != null) {
+            points = this.frozenQuadTree.bfs(rcX, rcY, rhalfWidth, rhalfHeight, sampleSize, benefit,
+                    stats.numberOfNodesStoppedAtLevels);
+        }
+        else {
+            points = this.quadTree.bfs(0.5, 0.5, 0.5,
+                    rcX, rcY, rhalfWidth, rhalfHeight, zoom, sampleSize, stats);
+        }
         MyTimer.stopTimer();
         double treeTime = MyTimer.durationSeconds();
 
-        MyTimer.temporaryTimer.put("treeTime", treeTime);
-        System.out.println("[RA-QuadTree] tree search got " + points.size() + " data points.");
+        MyTimer.temporaryTimer().put("treeTime", treeTime);
+        if (tileResults != null) {
+            System.out.println("[RA-QuadTree] tile search got " + tileResults.size() + " non-empty tiles.");
+        }
+        else {
+            System.out.println("[RA-QuadTree] tree search got " + points.size() + " data points.");
+        }
         System.out.println("[RA-QuadTree] tree search time: " + treeTime + " seconds.");
-        System.out.println("[RA-QuadTree]     - compute benefit time: " + times.get("computeBenefit") + " seconds.");
-        System.out.println("[RA-QuadTree]     - compute benefit was called: " + computeBenefitTimes + " times.");
+        System.out.println("[RA-QuadTree]     - compute benefit time: " + stats.computeBenefitTime.sum() + " seconds.");
+        System.out.println("[RA-QuadTree]     - compute benefit was called: " + stats.computeBenefitTimes.sum() + " times.");
 
         // build binary result message
         MyTimer.startTimer();
         BinaryMessageBuilder messageBuilder = new BinaryMessageBuilder();
         double lng, lat;
         int resultSize = 0;
-        for (Point point : points) {
-            lng = xLng(point.getX());
-            lat = yLat(point.getY());
-            messageBuilder.add(lng, lat);
-            resultSize++;
+        if (tileResults != null) {
+            for (double[] samples : tileResults) {
+                for (int i = 0; i < samples.length; i += 2) {
+                    messageBuilder.add(samples[i], samples[i + 1]);
+                    resultSize++;
+                }
+            }
+        }
+        else {
+            for (Point point : points) {
+                lng = xLng(point.getX());
+                lat = yLat(point.getY());
+                messageBuilder.add(lng, lat);
+                resultSize++;
+            }
         }
         MyTimer.stopTimer();
         double buildBinaryTime = MyTimer.durationSeconds();
-        MyTimer.temporaryTimer.put("aggregateTime", buildBinaryTime);
+        MyTimer.temporaryTimer().put("aggregateTime", buildBinaryTime);
 
         System.out.println("[RA-QuadTree] build binary result with  " + resultSize + " points.");
         System.out.println("[RA-QuadTree] build binary result time: " + buildBinaryTime + " seconds.");
@@ -864,12 +1458,67 @@ public class RAQuadTree implements IAlgorithm {
         System.out.println("[RA-QuadTree] answer query total time: " + MyTimer.durationSeconds() + " seconds.");
         System.out.println("[RA-QuadTree] ---- # of nodes stopping at each level ----");
         for (int i = 0; i <= Constants.MAX_ZOOM + 9; i ++) {
-            System.out.println("Level " + i + ": " + numberOfNodesStoppedAtLevels[i]);
+            System.out.println("Level " + i + ": " + stats.numberOfNodesStoppedAtLevels[i]);
         }
 
         return messageBuilder.getBuffer();
     }
 
+    /**
+     * answer a query in chunks of samples in benefit order,
+     * only the search on frozenQuadTree with sample size larger than Constants.STREAM_FIRST_CHUNK is streamed
+     *
+     * Note: a streamed query is searched by one sequential progressiveBfs, without tile decomposition or parallel search,
+     *       so streaming is disabled by default (Constants.STREAM_FIRST_CHUNK = 0)
+     *
+     * @param query
+     * @param chunks
+     */
+    @Override
+    public void answerQuery(Query query, ObjIntConsumer<byte[]> chunks) {
+        int sampleSize = query.sampleSize <= 0? Constants.DEFAULT_SAMPLE_SIZE: query.sampleSize;
+        int[][] ranked = this.rankedSamples;
+        boolean isRanked = ranked != null && query.zoom >= 0 && query.zoom < ranked.length && ranked[query.zoom] != null;
+        // queries of ranked zoom levels are answered without searching, no need to stream
+        if (this.frozenQuadTree == null || Constants.STREAM_FIRST_CHUNK <= 0 || sampleSize <= Constants.STREAM_FIRST_CHUNK || isRanked) {
+            chunks.accept(answerQuery(query), 100);
+            return;
+        }
+
+        int zoom = query.zoom;
+        double iX0 = lngX(query.bbox[0]);
+        double iY0 = latY(query.bbox[1]);
+        double iX1 = lngX(query.bbox[2]);
+        double iY1 = latY(query.bbox[3]);
+        double rcX = (iX0 + iX1) / 2;
+        double rcY = (iY0 + iY1) / 2;
+        double rhalfWidth = (iX1 - iX0) / 2;
+        double rhalfHeight = (iY0 - iY1) / 2;
+
+        /** For query stats*/
+        QueryStats stats = new QueryStats();
+
+        System.out.println("[RA-QuadTree] is streaming a best first search with sampleSize = " + sampleSize +
+                ", first chunk = " + Constants.STREAM_FIRST_CHUNK + ".");
+        MyTimer.startTimer();
+        this.frozenQuadTree.progressiveBfs(rcX, rcY, rhalfWidth, rhalfHeight, sampleSize, Constants.STREAM_FIRST_CHUNK,
+                (tree, node, level, ncX, ncY, nhalfDimension) -> computeBenefit(zoom, level, tree, node, ncX, ncY, nhalfDimension, stats),
+                stats.numberOfNodesStoppedAtLevels,
+                (samples, sentSampleSize, last) -> {
+                    BinaryMessageBuilder messageBuilder = new BinaryMessageBuilder(sentSampleSize == samples.size()? 0: Constants.MSG_TYPE_DELTA);
+                    for (Point point : samples) {
+                        messageBuilder.add(xLng(point.getX()), yLat(point.getY()));
+                    }
+                    int progress = last? 100: (int) Math.min(99, 100L * sentSampleSize / sampleSize);
+                    System.out.println("[RA-QuadTree] sending chunk of " + samples.size() + " points, progress = " + progress + ".");
+                    chunks.accept(messageBuilder.getBuffer(), progress);
+                });
+        MyTimer.stopTimer();
+        double treeTime = MyTimer.durationSeconds();
+        MyTimer.temporaryTimer().put("treeTime", treeTime);
+        System.out.println("[RA-QuadTree] streaming tree search time: " + treeTime + " seconds.");
+    }
+
     private void printTiming() {
         System.out.println("[Total Time] " + timing.get("total") + " seconds.");
     }
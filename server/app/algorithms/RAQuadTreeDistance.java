@@ -6,6 +6,10 @@ import util.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static util.Mercator.*;
 
@@ -19,11 +23,13 @@ public class RAQuadTreeDistance implements IAlgorithm {
         public Point sample; // always centroid for this special error metric
         public int count; // count of subtree
         public double error; // average distance between this centroid and the four children
+        public boolean dirty; // subtree changed since last sample selection
 
         public QuadTree() {
             this.sample = null;
             this.count = 0;
             this.error = 0.0;
+            this.dirty = true;
         }
 
         // children
@@ -32,59 +38,6 @@ public class RAQuadTreeDistance implements IAlgorithm {
         public QuadTree southWest;
         public QuadTree southEast;
 
-        /**
-         * Pre-order traverse the quadtree and write each node to one line in the buffered writer
-         *
-         * each node format:
-         *   level (int), cx (double), cy (double), halfDimension (double), count (int),
-         *   sample.x (double), sample.y (double), errors[0] (double), errors[1] (double), ...
-         *
-         * @param bufferedWriter
-         * @param _cX
-         * @param _cY
-         * @param _halfDimension
-         * @param _level
-         */
-        public void writeToFile(BufferedWriter bufferedWriter, double _cX, double _cY, double _halfDimension, int _level) throws IOException {
-            // write current node
-            if (this.sample != null) {
-                bufferedWriter.write(String.valueOf(this.sample.getX()));
-                bufferedWriter.write(",");
-                bufferedWriter.write(String.valueOf(this.sample.getY()));
-            }
-            else {
-                bufferedWriter.write(",");
-            }
-            bufferedWriter.write(",");
-            bufferedWriter.write(String.valueOf(this.error));
-            bufferedWriter.newLine();
-
-            // leaf node write an empty line for each child
-            if (this.northWest == null) {
-                // nw
-                bufferedWriter.write("");
-                bufferedWriter.newLine();
-                // ne
-                bufferedWriter.write("");
-                bufferedWriter.newLine();
-                // sw
-                bufferedWriter.write("");
-                bufferedWriter.newLine();
-                // se
-                bufferedWriter.write("");
-                bufferedWriter.newLine();
-                return;
-            }
-            else {
-                // recursively write the children
-                double halfDimension = _halfDimension / 2;
-                this.northWest.writeToFile(bufferedWriter, _cX - halfDimension, _cY - halfDimension, halfDimension, _level + 1);
-                this.northEast.writeToFile(bufferedWriter, _cX + halfDimension, _cY - halfDimension, halfDimension, _level + 1);
-                this.southWest.writeToFile(bufferedWriter, _cX - halfDimension, _cY + halfDimension, halfDimension, _level + 1);
-                this.southEast.writeToFile(bufferedWriter, _cX + halfDimension, _cY + halfDimension, halfDimension, _level + 1);
-            }
-        }
-
         /**
          * Pre-order traverse the quadtree and read each node from one line in the buffered reader
          *
@@ -182,6 +135,8 @@ public class RAQuadTreeDistance implements IAlgorithm {
             if (!containsPoint(cX, cY, halfDimension, point)) {
                 return false;
             }
+            // this subtree changes, its samples have to be selected again
+            this.dirty = true;
             // If this node is leaf and empty, put this point on this node
             if (this.sample == null && this.northWest == null) {
                 this.sample = point;
@@ -251,25 +206,7 @@ public class RAQuadTreeDistance implements IAlgorithm {
             this.northEast = new QuadTree();
             this.southWest = new QuadTree();
             this.southEast = new QuadTree();
-            nodesCount += 4;
-        }
-
-        class QEntry {
-            int level;
-            double ncX;
-            double ncY;
-            double nhalfDimension;
-            QuadTree node;
-            double benefit; // the benefit value if the take the best move
-
-            QEntry(int _level, double _ncX, double _ncY, double _nhalfDimension, QuadTree _node, double _benefit) {
-                level = _level;
-                ncX = _ncX;
-                ncY = _ncY;
-                nhalfDimension = _nhalfDimension;
-                node = _node;
-                benefit = _benefit;
-            }
+            nodesCount.addAndGet(4);
         }
 
         /**
@@ -287,57 +224,44 @@ public class RAQuadTreeDistance implements IAlgorithm {
          * @param _rhalfHeight
          * @param _zoom - zoom level of current query
          * @param _targetSampleSize
+         * @param _stats - stats of current query
          * @return
          */
         public List<Point> bfs(double _ncX, double _ncY, double _nhalfDimension,
                                double _rcX, double _rcY, double _rhalfWidth, double _rhalfHeight,
-                               int _zoom, int _targetSampleSize) {
+                               int _zoom, int _targetSampleSize, QueryStats _stats) {
 
             List<Point> result = new ArrayList<>();
 
             // explore larger estimatedProfit node first
-            PriorityQueue<QEntry> queue = new PriorityQueue<>(new Comparator<QEntry>() {
-                @Override
-                public int compare(QEntry o1, QEntry o2) {
-                    if (o2.benefit > o1.benefit)
-                        return 1;
-                    else if (o2.benefit < o1.benefit)
-                        return -1;
-                    else
-                        return 0;
-                }
-            });
+            BfsFrontier queue = BfsFrontier.acquire();
 
-            double rootBenefit = computeBenefit(_zoom, 0, this);
-            QEntry rootEntry = new QEntry(0, _ncX, _ncY, _nhalfDimension, this, rootBenefit);
+            double rootBenefit = computeBenefit(_zoom, 0, this, _stats);
             // add root node
-            queue.add(rootEntry);
+            queue.add(0, this, 0, _ncX, _ncY, _nhalfDimension, rootBenefit);
             int availableSampleSize = _targetSampleSize - Constants.NODE_SAMPLE_SIZE;
 
-            while (queue.size() > 0) {
+            while (!queue.isEmpty()) {
 
                 // pick the largest benefit node
-                QEntry entry = queue.poll();
-                int level = entry.level;
-                double ncX = entry.ncX;
-                double ncY = entry.ncY;
-                double nhalfDimension = entry.nhalfDimension;
-                QuadTree node = entry.node;
-                double benefit = entry.benefit;
+                int entry = queue.poll();
+                int level = queue.level(entry);
+                double ncX = queue.ncX(entry);
+                double ncY = queue.ncY(entry);
+                double nhalfDimension = queue.nhalfDimension(entry);
+                QuadTree node = (QuadTree) queue.ref(entry);
+                double benefit = queue.benefit(entry);
                 int sampleSize = node.sample == null? 0: Constants.NODE_SAMPLE_SIZE;
 
-                // if the largest estimated benefit is 0 or enough samples, entering collecting samples mode
+                // if the largest estimated benefit is 0 or enough samples, entering collecting samples mode,
+                // all the other nodes in the queue are not expanded either, so collect them at once
                 if (benefit <= 0.0 || availableSampleSize <= 0) {
-                    //-DEBUG-//
-//                    System.out.println("[queue] level = " + level);
-//                    System.out.println("[queue] benefit = " + benefit);
-//                    System.out.println("[queue] sample size = " + sampleSize);
-                    //-DEBUG-//
-                    if (node.sample != null) {
-                        numberOfNodesStoppedAtLevels[level] ++;
-                        result.add(node.sample);
+                    node.collectSample(level, result, _stats);
+                    for (int i = 0; i < queue.heapSize(); i ++) {
+                        int slot = queue.heapSlot(i);
+                        ((QuadTree) queue.ref(slot)).collectSample(queue.level(slot), result, _stats);
                     }
-                    continue;
+                    break;
                 }
 
                 // otherwise, expand this node
@@ -350,9 +274,8 @@ public class RAQuadTreeDistance implements IAlgorithm {
                 cY = ncY - halfDimension;
                 // ignore this node if the range does not intersect with it
                 if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
-                    double benefitNW = computeBenefit(_zoom, level + 1, node.northWest);
-                    QEntry entryNW = new QEntry(level + 1, cX, cY, halfDimension, node.northWest, benefitNW);
-                    queue.add(entryNW);
+                    double benefitNW = computeBenefit(_zoom, level + 1, node.northWest, _stats);
+                    queue.add(0, node.northWest, level + 1, cX, cY, halfDimension, benefitNW);
                     if (node.northWest.sample != null) {
                         availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
                     }
@@ -363,9 +286,8 @@ public class RAQuadTreeDistance implements IAlgorithm {
                 cY = ncY - halfDimension;
                 // ignore this node if the range does not intersect with it
                 if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
-                    double benefitNE = computeBenefit(_zoom, level + 1, node.northEast);
-                    QEntry entryNE = new QEntry(level + 1, cX, cY, halfDimension, node.northEast, benefitNE);
-                    queue.add(entryNE);
+                    double benefitNE = computeBenefit(_zoom, level + 1, node.northEast, _stats);
+                    queue.add(0, node.northEast, level + 1, cX, cY, halfDimension, benefitNE);
                     if (node.northEast.sample != null) {
                         availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
                     }
@@ -376,9 +298,8 @@ public class RAQuadTreeDistance implements IAlgorithm {
                 cY = ncY + halfDimension;
                 // ignore this node if the range does not intersect with it
                 if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
-                    double benefitSW = computeBenefit(_zoom, level + 1, node.southWest);
-                    QEntry entrySW = new QEntry(level + 1, cX, cY, halfDimension, node.southWest, benefitSW);
-                    queue.add(entrySW);
+                    double benefitSW = computeBenefit(_zoom, level + 1, node.southWest, _stats);
+                    queue.add(0, node.southWest, level + 1, cX, cY, halfDimension, benefitSW);
                     if (node.southWest.sample != null) {
                         availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
                     }
@@ -389,30 +310,44 @@ public class RAQuadTreeDistance implements IAlgorithm {
                 cY = ncY + halfDimension;
                 // ignore this node if the range does not intersect with it
                 if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
-                    double benefitSE = computeBenefit(_zoom, level + 1, node.southEast);
-                    QEntry entrySE = new QEntry(level + 1, cX, cY, halfDimension, node.southEast, benefitSE);
-                    queue.add(entrySE);
+                    double benefitSE = computeBenefit(_zoom, level + 1, node.southEast, _stats);
+                    queue.add(0, node.southEast, level + 1, cX, cY, halfDimension, benefitSE);
                     if (node.southEast.sample != null) {
                         availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
                     }
                 }
             }
 
+            queue.release();
+
             //-DEBUG-//
             System.out.println("[availableSampleSize] = " + availableSampleSize);
 
             return result;
         }
 
+        void collectSample(int _level, List<Point> _result, QueryStats _stats) {
+            if (this.sample != null) {
+                _stats.numberOfNodesStoppedAtLevels[_level] ++;
+                _result.add(this.sample);
+            }
+        }
+
         /**
          * Post-order traverse the Quadtree,
-         * select the best sample for each node
+         * select the best sample for each node,
+         * subtrees not changed since last selection are skipped
          *
          * compute a centroid as the best fake sample from its 4 children
          */
         public void selectSamples(double _cX, double _cY, double _halfDimension, int _level) {
+            // subtree not changed since last selection already has the best samples
+            if (!this.dirty) {
+                return;
+            }
             // leaf node already has the best sample
             if (this.northWest == null) {
+                this.dirty = false;
                 return;
             }
 
@@ -424,6 +359,14 @@ public class RAQuadTreeDistance implements IAlgorithm {
             this.southWest.selectSamples(_cX - halfDimension, _cY + halfDimension, halfDimension, _level + 1);
             this.southEast.selectSamples(_cX + halfDimension, _cY + halfDimension, halfDimension, _level + 1);
 
+            this.selectSample(_cX, _cY, _halfDimension);
+        }
+
+        /**
+         * select the best sample for this node from its 4 children,
+         * the 4 children must already have their best samples selected
+         */
+        void selectSample(double _cX, double _cY, double _halfDimension) {
             // sum the four centroids weighted coordinates (count is the weight) from four children
             double sumX = 0.0;
             double sumY = 0.0;
@@ -469,25 +412,217 @@ public class RAQuadTreeDistance implements IAlgorithm {
 
             // error of this node is the average weighted distance between this centroid and the four children
             this.error = sumDistance / sumCount;
+            this.dirty = false;
         }
 
     }
 
+    /**
+     * Post-order traverse the Quadtree in parallel with fork/join,
+     * subtrees with less than Constants.PARALLEL_THRESHOLD points are traversed sequentially.
+     * Each node only depends on its own children, so the result is identical to QuadTree.selectSamples
+     */
+    class SelectSamplesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        QuadTree node;
+        double cX;
+        double cY;
+        double halfDimension;
+        int level;
+
+        SelectSamplesTask(QuadTree _node, double _cX, double _cY, double _halfDimension, int _level) {
+            node = _node;
+            cX = _cX;
+            cY = _cY;
+            halfDimension = _halfDimension;
+            level = _level;
+        }
+
+        @Override
+        protected void compute() {
+            // subtree not changed since last selection already has the best samples
+            if (!node.dirty) {
+                return;
+            }
+            // leaf node already has the best sample
+            if (node.northWest == null) {
+                node.dirty = false;
+                return;
+            }
+
+            if (node.count < Constants.PARALLEL_THRESHOLD) {
+                node.selectSamples(cX, cY, halfDimension, level);
+                return;
+            }
+
+            // select best samples for all four children in parallel first
+            double childHalfDimension = halfDimension / 2;
+            invokeAll(
+                    new SelectSamplesTask(node.northWest, cX - childHalfDimension, cY - childHalfDimension, childHalfDimension, level + 1),
+                    new SelectSamplesTask(node.northEast, cX + childHalfDimension, cY - childHalfDimension, childHalfDimension, level + 1),
+                    new SelectSamplesTask(node.southWest, cX - childHalfDimension, cY + childHalfDimension, childHalfDimension, level + 1),
+                    new SelectSamplesTask(node.southEast, cX + childHalfDimension, cY + childHalfDimension, childHalfDimension, level + 1)
+            );
+
+            node.selectSample(cX, cY, halfDimension);
+        }
+    }
+
+    /**
+     * Build a subtree in parallel with fork/join from a contiguous run of a Morton sorted batch,
+     * the run of each child is found by binary search on the keys and the four children are built independently,
+     * subtrees with less than Constants.PARALLEL_THRESHOLD points are built by a single thread.
+     *
+     * An empty subtree is built bottom-up from its run without visiting any ancestor again,
+     * nodes are allocated in the spatial order of the run.
+     * A non-empty subtree is extended by descending the run along existing nodes.
+     * Points in the same smallest node keep their order in the batch,
+     * so the result is identical to inserting the points one by one with QuadTree.insert
+     */
+    class InsertTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        QuadTree node;
+        double cX;
+        double cY;
+        double halfDimension;
+        int level;
+        Morton batch;
+        long firstKey; // smallest Morton key covered by this node
+        int from; // inclusive
+        int to; // exclusive
+
+        InsertTask(QuadTree _node, double _cX, double _cY, double _halfDimension, int _level,
+                   Morton _batch, long _firstKey, int _from, int _to) {
+            node = _node;
+            cX = _cX;
+            cY = _cY;
+            halfDimension = _halfDimension;
+            level = _level;
+            batch = _batch;
+            firstKey = _firstKey;
+            from = _from;
+            to = _to;
+        }
+
+        /**
+         * @return number of inserted points
+         */
+        @Override
+        protected Integer compute() {
+            int n = to - from;
+            if (n == 0) return 0;
+            // this subtree changes, its samples have to be selected again
+            node.dirty = true;
+
+            // If this node is leaf and empty, and only one point arrives, put this point on this node
+            if (node.sample == null && node.northWest == null && n == 1) {
+                node.sample = batch.points[from];
+                node.count = 1;
+                return 1;
+            }
+
+            // if boundary is smaller than highestLevelNodeDimension,
+            // stop splitting, this leaf node keeps its first point and skips the others
+            if (halfDimension * 2 < highestLevelNodeDimension) {
+                node.count += n;
+                if (node.sample == null) {
+                    node.sample = batch.points[from];
+                    return 1;
+                }
+                return 0;
+            }
+
+            // Otherwise, at least 2 points end up in this node, subdivide
+            node.count += n;
+            if (node.northWest == null) {
+                node.subdivide();
+                // descend current node's point into corresponding quadrant, it was inserted before the whole batch
+                if (node.sample != null) {
+                    node.insertNorthWest(cX, cY, halfDimension, node.sample, level + 1);
+                    node.insertNorthEast(cX, cY, halfDimension, node.sample, level + 1);
+                    node.insertSouthWest(cX, cY, halfDimension, node.sample, level + 1);
+                    node.insertSouthEast(cX, cY, halfDimension, node.sample, level + 1);
+                    node.sample = null;
+                }
+            }
+
+            // split the run into four children's runs
+            long childKeys = batch.cellKeys(level + 1);
+            int toNW = Morton.lowerBound(batch.keys, from, to, firstKey + childKeys);
+            int toNE = Morton.lowerBound(batch.keys, toNW, to, firstKey + 2 * childKeys);
+            int toSW = Morton.lowerBound(batch.keys, toNE, to, firstKey + 3 * childKeys);
+            double childHalfDimension = halfDimension / 2;
+            InsertTask taskNW = new InsertTask(node.northWest, cX - childHalfDimension, cY - childHalfDimension, childHalfDimension, level + 1,
+                    batch, firstKey, from, toNW);
+            InsertTask taskNE = new InsertTask(node.northEast, cX + childHalfDimension, cY - childHalfDimension, childHalfDimension, level + 1,
+                    batch, firstKey + childKeys, toNW, toNE);
+            InsertTask taskSW = new InsertTask(node.southWest, cX - childHalfDimension, cY + childHalfDimension, childHalfDimension, level + 1,
+                    batch, firstKey + 2 * childKeys, toNE, toSW);
+            InsertTask taskSE = new InsertTask(node.southEast, cX + childHalfDimension, cY + childHalfDimension, childHalfDimension, level + 1,
+                    batch, firstKey + 3 * childKeys, toSW, to);
+
+            if (n < Constants.PARALLEL_THRESHOLD) {
+                return taskNW.compute() + taskNE.compute() + taskSW.compute() + taskSE.compute();
+            }
+            invokeAll(taskNW, taskNE, taskSW, taskSE);
+            return taskNW.join() + taskNE.join() + taskSW.join() + taskSE.join();
+        }
+    }
+
+    /**
+     * insert a batch of points into the QuadTree using all cores
+     *
+     * @param points
+     * @return number of inserted points
+     */
+    private int insert(List<Point> points) {
+        // keys go one level below the smallest node that can still be subdivided
+        int depth = (int) Math.round(-Math.log(highestLevelNodeDimension) / Math.log(2)) + 1;
+        Morton batch = Morton.sort(points, depth);
+        return ForkJoinPool.commonPool().invoke(new InsertTask(this.quadTree, 0.5, 0.5, 0.5, 0, batch, 0L, 0, batch.size));
+    }
+
+    /**
+     * select best sample for each node in the QuadTree using all cores
+     */
+    private void selectSamples() {
+        ForkJoinPool.commonPool().invoke(new SelectSamplesTask(this.quadTree, 0.5, 0.5, 0.5, 0));
+    }
+
     public static double highestLevelNodeDimension;
 
+    // the deepest leaf level is one level below the smallest node that can still be subdivided
+    static int numberOfLevels() {
+        return Constants.MAX_ZOOM + 8 + 2;
+    }
+
+    static int[] errorFromOfLevels() {
+        return new int[numberOfLevels()];
+    }
+
+    /**
+     * @return number of errors stored for an internal node at each level,
+     *         nodes at levels < 8 are always expanded by bfs, so their errors are never used
+     */
+    static int[] errorCountOfLevels() {
+        int[] errorCount = new int[numberOfLevels()];
+        for (int level = 8; level < errorCount.length; level ++) {
+            errorCount[level] = 1;
+        }
+        return errorCount;
+    }
+
     QuadTree quadTree;
+    FrozenQuadTree frozenQuadTree; // read-only compact layout of quadTree after data loading is finished
+    TileCache tileCache; // results of tiles searched on frozenQuadTree
     int totalNumberOfPoints = 0;
     int totalStoredNumberOfPoints = 0;
-    static long nodesCount = 0; // count quad-tree nodes
+    final AtomicLong nodesCount = new AtomicLong(); // count quad-tree nodes
+    static final int NODE_BYTES = 56; // heap bytes of a QuadTree node: object header + fields, 8 bytes aligned
     boolean finish = false; // loading data finish flag
 
-    /** For query stats */
-    static int[] numberOfNodesStoppedAtLevels; // for current query, count how many nodes stopped at a certain level
-    static int computeBenefitTimes; // for current query, count how many times compute the benefit
-
-    /** For query time analysis */
-    static Map<String, Double> times; // for current query, store times for different parts
-
     //-Timing-//
     static final boolean keepTiming = true;
     Map<String, Double> timing;
@@ -495,6 +630,7 @@ public class RAQuadTreeDistance implements IAlgorithm {
 
     public RAQuadTreeDistance() {
         this.quadTree = new QuadTree();
+        this.tileCache = new TileCache(Constants.TILE_CACHE_BYTES);
 
         // zoom level 0 is fixed with dimension 1.0 / 256 (because one tile of the base map is 256px x 256px)
         highestLevelNodeDimension = 1.0 / 256 / Math.pow(2, Constants.MAX_ZOOM);
@@ -510,24 +646,65 @@ public class RAQuadTreeDistance implements IAlgorithm {
             timing.put("writeToFile", 0.0);
         }
 
-        /** For query stats */
-        numberOfNodesStoppedAtLevels = new int[Constants.MAX_ZOOM + 9 + 1];
+        MyMemory.printMemory();
+    }
 
-        /** For query time analysis */
-        times = new HashMap<>();
+    @Override
+    public long estimatedBytes() {
+        if (this.frozenQuadTree != null) {
+            return this.frozenQuadTree.heapBytes() + this.tileCache.bytes();
+        }
+        // points skipped by the smallest nodes are not kept
+        return nodeCount() * NODE_BYTES + this.totalStoredNumberOfPoints * Constants.POINT_BYTES;
+    }
 
-        MyMemory.printMemory();
+    @Override
+    public long nodeCount() {
+        if (this.frozenQuadTree != null) {
+            return this.frozenQuadTree.size();
+        }
+        return this.nodesCount.get() + 1;
+    }
+
+    /**
+     * @return count of the root node, before and after freezing, also for a tree read from file
+     */
+    @Override
+    public long pointCount() {
+        if (this.frozenQuadTree != null) {
+            return this.frozenQuadTree.size() == 0? 0: this.frozenQuadTree.count(0);
+        }
+        return this.quadTree.count;
+    }
+
+    @Override
+    public boolean canWriteToFile() {
+        return true;
     }
 
     public boolean readFromFile(String fileName) {
         System.out.println("[RA-QuadTree-Distance] read from file " + fileName + " ... ...");
 
         try {
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
             //--time--//
             long startTime = System.nanoTime();
-            this.quadTree = quadTree.readFromFile(bufferedReader, 0.5, 0.5, 0.5, 0);
-            bufferedReader.close();
+            if (FrozenQuadTree.isSnapshot(fileName)) {
+                // binary snapshot is queried in place, no deserialization is needed
+                FrozenQuadTree snapshot = MappedFrozenQuadTree.mapFromFile(fileName);
+                if (!snapshot.hasErrorLayout(errorFromOfLevels(), errorCountOfLevels())) {
+                    System.out.println("[RA-QuadTree-Distance] read from file " + fileName + " failed! snapshot is not built by RA-QuadTree-Distance.");
+                    return false;
+                }
+                this.frozenQuadTree = snapshot;
+            }
+            else {
+                // legacy csv format
+                BufferedReader bufferedReader = new BufferedReader(new FileReader(fileName));
+                QuadTree root = new QuadTree().readFromFile(bufferedReader, 0.5, 0.5, 0.5, 0);
+                bufferedReader.close();
+                this.frozenQuadTree = freeze(root);
+            }
+            this.quadTree = null;
             //--time--//
             long endTime = System.nanoTime();
             System.out.println("[RA-QuadTree-Distance] read from file " + fileName + " done! Time: " + ((double) (endTime - startTime) / 1000000000.0) + " seconds.");
@@ -546,15 +723,15 @@ public class RAQuadTreeDistance implements IAlgorithm {
     public boolean writeToFile(String fileName) {
         System.out.println("[RA-QuadTree-Distance] write to file " + fileName + " ... ...");
 
+        if (this.frozenQuadTree == null) {
+            System.out.println("[RA-QuadTree-Distance] write to file " + fileName + " failed! data loading is not finished.");
+            return false;
+        }
+
         try {
-            File file = new File(fileName);
-            FileOutputStream fileOutputStream = new FileOutputStream(file);
-            BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(fileOutputStream));
             //--time--//
             long startTime = System.nanoTime();
-            quadTree.writeToFile(bufferedWriter, 0.5, 0.5, 0.5, 0);
-            bufferedWriter.close();
-            fileOutputStream.close();
+            this.frozenQuadTree.writeToFile(fileName);
             //--time--//
             long endTime = System.nanoTime();
             double writeToFileTime = (double) (endTime - startTime) / 1000000000.0;
@@ -575,19 +752,54 @@ public class RAQuadTreeDistance implements IAlgorithm {
         return false;
     }
 
+    /**
+     * compact the QuadTree into a read-only FrozenQuadTree,
+     * nodes are visited in BFS order so that siblings are stored contiguously
+     *
+     * @param _root
+     * @return
+     */
+    private FrozenQuadTree freeze(QuadTree _root) {
+        FrozenQuadTree frozen = new FrozenQuadTree(errorFromOfLevels(), errorCountOfLevels());
+        float[] error = new float[1];
+        Queue<QuadTree> queue = new ArrayDeque<>();
+        frozen.append(_root.count, _root.sample);
+        queue.add(_root);
+        int node = 0;
+        int level = 0;
+        int levelEnd = 1; // nodes of next level start after the children of all nodes of this level
+        while (!queue.isEmpty()) {
+            QuadTree current = queue.poll();
+            if (node == levelEnd) {
+                level ++;
+                levelEnd = frozen.size();
+            }
+            if (current.northWest != null) {
+                error[0] = (float) current.error;
+                frozen.expand(node, level, error);
+                frozen.append(current.northWest.count, current.northWest.sample);
+                frozen.append(current.northEast.count, current.northEast.sample);
+                frozen.append(current.southWest.count, current.southWest.sample);
+                frozen.append(current.southEast.count, current.southEast.sample);
+                queue.add(current.northWest);
+                queue.add(current.northEast);
+                queue.add(current.southWest);
+                queue.add(current.southEast);
+            }
+            node ++;
+        }
+        frozen.trim();
+        return frozen;
+    }
+
     public void load(List<Point> points) {
         System.out.println("[RA-QuadTree-Distance] loading " + points.size() + " points ... ...");
 
         this.totalNumberOfPoints += points.size();
-        int count = 0;
-        int skip = 0;
         MyTimer.startTimer();
-        for (Point point: points) {
-            if (this.quadTree.insert(0.5, 0.5, 0.5, lngLatToXY(point), 0))
-                count ++;
-            else
-                skip ++;
-        }
+        points.parallelStream().forEach(point -> lngLatToXY(point));
+        int count = this.insert(points);
+        int skip = points.size() - count;
         MyTimer.stopTimer();
         double insertTime = MyTimer.durationSeconds();
         this.totalStoredNumberOfPoints += count;
@@ -612,7 +824,7 @@ public class RAQuadTreeDistance implements IAlgorithm {
         this.finish = true;
         // select best sample for each node in the QuadTree
         MyTimer.startTimer();
-        this.quadTree.selectSamples(0.5, 0.5, 0.5, 0);
+        this.selectSamples();
         MyTimer.stopTimer();
         double selectSamplesTime = MyTimer.durationSeconds();
         if (keepTiming) timing.put("selectSamples", selectSamplesTime);
@@ -620,11 +832,16 @@ public class RAQuadTreeDistance implements IAlgorithm {
         System.out.println("[RA-QuadTree-Distance] sample selection time: " + selectSamplesTime + " seconds.");
         System.out.println("==== Data loading finished ====");
         this.printTiming();
+
+        // compact the QuadTree into parallel arrays and drop the object graph
+        this.frozenQuadTree = freeze(this.quadTree);
+        this.quadTree = null;
+        System.out.println("[RA-QuadTree-Distance] freeze " + this.frozenQuadTree.size() + " nodes into compact layout is done!");
         MyMemory.printMemory();
     }
 
-    public static double computeBenefit(int _zoom, int _level, QuadTree _node) {
-        computeBenefitTimes ++;
+    public static double computeBenefit(int _zoom, int _level, QuadTree _node, QueryStats _stats) {
+        _stats.computeBenefitTimes.increment();
 
         //--time--//
         long startTime = System.nanoTime();
@@ -660,7 +877,55 @@ public class RAQuadTreeDistance implements IAlgorithm {
 
         //--time--//
         long endTime = System.nanoTime();
-        times.put("computeBenefit", times.get("computeBenefit") + ((double) (endTime - startTime) / 1000000000.0));
+        _stats.computeBenefitTime.add((double) (endTime - startTime) / 1000000000.0);
+
+        if (cost == 0) {
+            return Double.MAX_VALUE;
+        }
+        else {
+            return gain / (double) cost;
+        }
+    }
+
+    public static double computeBenefit(int _zoom, int _level, FrozenQuadTree _tree, int _node, QueryStats _stats) {
+        _stats.computeBenefitTimes.increment();
+
+        //--time--//
+        long startTime = System.nanoTime();
+
+        // for leaf node, it can not be expanded at all.
+        if (_tree.isLeaf(_node)) return 0.0;
+
+        // for levels < zoom level 0 (2^8 = 256, zoom level 0 has 256px resolution), always expand.
+        if (_level < 8) return Double.MAX_VALUE;
+
+        // for nodes with resolution larger than query resolution, always yield other nodes
+        if (_level >= _zoom + 8) return 0.0;
+
+        // resolution of this node represent in query
+        int resolution = (int) Math.max(Math.pow(2, _zoom + 8 - _level), 1);
+        // current error = average distance of this node against 4 children x number of pixels this node has
+        double error = _tree.error(_node, _level, 0) * resolution * resolution;
+
+        // resolution of child node represent in query
+        int childResolution = Math.max(resolution / 2, 1);
+        // total error of children
+        double sumErrorChildren = 0.0;
+        int sampleSizeOfChildren = 0;
+        for (int quadrant = FrozenQuadTree.NORTH_WEST; quadrant <= FrozenQuadTree.SOUTH_EAST; quadrant ++) {
+            int child = _tree.child(_node, quadrant);
+            sumErrorChildren += _tree.error(child, _level + 1, 0);
+            sampleSizeOfChildren += (_tree.hasSample(child)? 1: 0);
+        }
+        sumErrorChildren = sumErrorChildren * childResolution * childResolution;
+
+        double gain = error - (sumErrorChildren / 4.0);
+        int sampleSize = (_tree.hasSample(_node)? 1: 0);
+        int cost = sampleSizeOfChildren - sampleSize;
+
+        //--time--//
+        long endTime = System.nanoTime();
+        _stats.computeBenefitTime.add((double) (endTime - startTime) / 1000000000.0);
 
         if (cost == 0) {
             return Double.MAX_VALUE;
@@ -674,8 +939,8 @@ public class RAQuadTreeDistance implements IAlgorithm {
 
         if (!this.finish) {
             // System.out.println("[RA-QuadTree-Distance] has not finished loading data, will not answer this query!");
-            // MyTimer.temporaryTimer.put("treeTime", 0.0);
-            // MyTimer.temporaryTimer.put("aggregateTime", 0.0);
+            // MyTimer.temporaryTimer().put("treeTime", 0.0);
+            // MyTimer.temporaryTimer().put("aggregateTime", 0.0);
             // BinaryMessageBuilder messageBuilder = new BinaryMessageBuilder();
             // double lng = xLng(0.5);
             // double lat = yLat(0.5);
@@ -683,7 +948,7 @@ public class RAQuadTreeDistance implements IAlgorithm {
             // return messageBuilder.getBuffer();
             System.out.println("[RA-QuadTree-Distance] has not finished loading data, select samples temporarily for progressive results!");
             MyTimer.startTimer();
-            this.quadTree.selectSamples(0.5, 0.5, 0.5, 0);
+            this.selectSamples();
             MyTimer.stopTimer();
             double selectSamplesTime = MyTimer.durationSeconds();
             System.out.println("[RA-QuadTree-Distance] sample selection time: " + selectSamplesTime + " seconds.");
@@ -723,39 +988,65 @@ public class RAQuadTreeDistance implements IAlgorithm {
                 "pixelScale = " + pixelScale + ";");
 
         /** For query stats*/
-        for (int i = 0; i <= Constants.MAX_ZOOM + 9; i ++) numberOfNodesStoppedAtLevels[i] = 0;
-        computeBenefitTimes = 0;
-
-        /** For query time analysis */
-        times.put("computeBenefit", 0.0);
+        QueryStats stats = new QueryStats();
 
         MyTimer.startTimer();
         System.out.println("[RA-QuadTree-Distance] is doing a best first search with sampleSize = " + sampleSize + ".");
-        List<Point> points = this.quadTree.bfs(0.5, 0.5, 0.5,
-                rcX, rcY, rhalfWidth, rhalfHeight, zoom, sampleSize);
+        List<Point> points = null;
+        List<double[]> tileResults = null; // longitude/latitude pairs of samples of each tile
+        FrozenQuadTree.Benefit benefit = (tree, node, level, ncX, ncY, nhalfDimension) -> computeBenefit(zoom, level, tree, node, stats);
+        if (this.frozenQuadTree != null && zoom <= TileCache.MAX_ZOOM
+                && FrozenQuadTree.numberOfTiles(zoom, iX0, iY1, iX1, iY0) <= Constants.MAX_QUERY_TILES) {
+            // search tile by tile, so that results of tiles shared by panned or zoomed viewports are reused
+            tileResults = this.frozenQuadTree.bfsTiles(zoom, iX0, iY1, iX1, iY0, sampleSize, benefit,
+                    this.tileCache, stats.numberOfNodesStoppedAtLevels);
+        }
+        else if (this.frozenQuadTree != null) {
+            points = this.frozenQuadTree.bfs(rcX, rcY, rhalfWidth, rhalfHeight, sampleSize, benefit,
+                    stats.numberOfNodesStoppedAtLevels);
+        }
+        else {
+            points = this.quadTree.bfs(0.5, 0.5, 0.5,
+                    rcX, rcY, rhalfWidth, rhalfHeight, zoom, sampleSize, stats);
+        }
         MyTimer.stopTimer();
         double treeTime = MyTimer.durationSeconds();
 
-        MyTimer.temporaryTimer.put("treeTime", treeTime);
-        System.out.println("[RA-QuadTree-Distance] tree search got " + points.size() + " data points.");
+        MyTimer.temporaryTimer().put("treeTime", treeTime);
+        if (tileResults != null) {
+            System.out.println("[RA-QuadTree-Distance] tile search got " + tileResults.size() + " non-empty tiles.");
+        }
+        else {
+            System.out.println("[RA-QuadTree-Distance] tree search got " + points.size() + " data points.");
+        }
         System.out.println("[RA-QuadTree-Distance] tree search time: " + treeTime + " seconds.");
-        System.out.println("[RA-QuadTree-Distance]     - compute benefit time: " + times.get("computeBenefit") + " seconds.");
-        System.out.println("[RA-QuadTree-Distance]     - compute benefit was called: " + computeBenefitTimes + " times.");
+        System.out.println("[RA-QuadTree-Distance]     - compute benefit time: " + stats.computeBenefitTime.sum() + " seconds.");
+        System.out.println("[RA-QuadTree-Distance]     - compute benefit was called: " + stats.computeBenefitTimes.sum() + " times.");
 
         // build binary result message
         MyTimer.startTimer();
         BinaryMessageBuilder messageBuilder = new BinaryMessageBuilder();
         double lng, lat;
         int resultSize = 0;
-        for (Point point : points) {
-            lng = xLng(point.getX());
-            lat = yLat(point.getY());
-            messageBuilder.add(lng, lat);
-            resultSize++;
+        if (tileResults != null) {
+            for (double[] samples : tileResults) {
+                for (int i = 0; i < samples.length; i += 2) {
+                    messageBuilder.add(samples[i], samples[i + 1]);
+                    resultSize++;
+                }
+            }
+        }
+        else {
+            for (Point point : points) {
+                lng = xLng(point.getX());
+                lat = yLat(point.getY());
+                messageBuilder.add(lng, lat);
+                resultSize++;
+            }
         }
         MyTimer.stopTimer();
         double buildBinaryTime = MyTimer.durationSeconds();
-        MyTimer.temporaryTimer.put("aggregateTime", buildBinaryTime);
+        MyTimer.temporaryTimer().put("aggregateTime", buildBinaryTime);
 
         System.out.println("[RA-QuadTree-Distance] build binary result with  " + resultSize + " points.");
         System.out.println("[RA-QuadTree-Distance] build binary result time: " + buildBinaryTime + " seconds.");
@@ -764,7 +1055,7 @@ public class RAQuadTreeDistance implements IAlgorithm {
         System.out.println("[RA-QuadTree-Distance] answer query total time: " + MyTimer.durationSeconds() + " seconds.");
         System.out.println("[RA-QuadTree-Distance] ---- # of nodes stopping at each level ----");
         for (int i = 0; i <= Constants.MAX_ZOOM + 9; i ++) {
-            System.out.println("Level " + i + ": " + numberOfNodesStoppedAtLevels[i]);
+            System.out.println("Level " + i + ": " + stats.numberOfNodesStoppedAtLevels[i]);
         }
 
         return messageBuilder.getBuffer();
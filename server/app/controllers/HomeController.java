@@ -1,6 +1,8 @@
 package controllers;
 
 import actor.Agent;
+import actor.AlgorithmRegistry;
+import util.QueryCache;
 import akka.util.ByteString;
 import com.fasterxml.jackson.databind.JsonNode;
 import play.api.http.websocket.CloseCodes;
@@ -27,12 +29,17 @@ public class HomeController extends Controller {
     private final Config config;
     private final ActorSystem actorSystem;
     private final Materializer materializer;
+    private final AlgorithmRegistry registry;
+    private final QueryCache queryCache;
 
     @Inject
-    public HomeController(Config config, ActorSystem actorSystem, Materializer materializer) {
+    public HomeController(Config config, ActorSystem actorSystem, Materializer materializer, AlgorithmRegistry registry,
+                          QueryCache queryCache) {
         this.config = config;
         this.actorSystem = actorSystem;
         this.materializer = materializer;
+        this.registry = registry;
+        this.queryCache = queryCache;
     }
 
     /**
@@ -78,7 +85,7 @@ public class HomeController extends Controller {
                 }
                 throw Scala.noMatch();
             }
-        ).accept(request -> ActorFlow.actorRef((actorRef) -> Agent.props(actorRef, config), actorSystem, materializer));
+        ).accept(request -> ActorFlow.actorRef((actorRef) -> Agent.props(actorRef, config, registry, queryCache), actorSystem, materializer));
     }
 
     public CompletionStage<Result> transfer() {
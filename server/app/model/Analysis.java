@@ -15,6 +15,9 @@ public class Analysis {
      *  - clusterKey1: String
      *  - clusterKey2: String
      *  - zoom: int
+     *
+     * memory [key]
+     *  - key: String, optional, all algorithms if not given
      */
     public String objective;
     public String[] arguments;
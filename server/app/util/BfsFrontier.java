@@ -0,0 +1,218 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Frontier of the best first search on a quadtree,
+ * a 4-ary max heap of entries keyed by benefit, backed by primitive arrays
+ *
+ * Note: entries are stored in append-only slots (node, level, center, benefit),
+ *       the heap only moves slot numbers, so expanding a node allocates nothing.
+ *       Arrays grow on demand and are kept for the next search on the same thread (see acquire()).
+ */
+public class BfsFrontier {
+
+    private static final ThreadLocal<BfsFrontier> reusable = ThreadLocal.withInitial(BfsFrontier::new);
+
+    // slots of entries
+    int size;
+    int[] nodes;
+    Object[] refs; // node objects of pointer trees
+    int[] levels;
+    double[] ncXs;
+    double[] ncYs;
+    double[] nhalfDimensions;
+    double[] benefits;
+    boolean[] marks; // e.g. sample of the entry has been sent
+
+    // heap of slots ordered by benefits
+    int heapSize;
+    int[] heap;
+
+    boolean inUse;
+
+    public BfsFrontier() {
+        this(1024);
+    }
+
+    public BfsFrontier(int _capacity) {
+        nodes = new int[_capacity];
+        refs = new Object[_capacity];
+        levels = new int[_capacity];
+        ncXs = new double[_capacity];
+        ncYs = new double[_capacity];
+        nhalfDimensions = new double[_capacity];
+        benefits = new double[_capacity];
+        marks = new boolean[_capacity];
+        heap = new int[_capacity];
+    }
+
+    /**
+     * @return the frontier of current thread if it is not in use by an enclosing search, otherwise a new one,
+     *         always call release() after the search
+     */
+    public static BfsFrontier acquire() {
+        BfsFrontier frontier = reusable.get();
+        if (frontier.inUse) {
+            frontier = new BfsFrontier();
+        }
+        frontier.inUse = true;
+        return frontier;
+    }
+
+    /**
+     * clear all entries, references to node objects are dropped
+     */
+    public void release() {
+        Arrays.fill(refs, 0, size, null);
+        size = 0;
+        heapSize = 0;
+        inUse = false;
+    }
+
+    public boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /**
+     * @return number of entries in the heap
+     */
+    public int heapSize() {
+        return heapSize;
+    }
+
+    /**
+     * @param i - [0, heapSize())
+     * @return slot of the i-th entry in the heap, entries are in no particular order
+     */
+    public int heapSlot(int i) {
+        return heap[i];
+    }
+
+    /**
+     * add an entry
+     *
+     * @param _node - node index of frozen trees
+     * @param _ref - node object of pointer trees
+     * @param _level
+     * @param _ncX
+     * @param _ncY
+     * @param _nhalfDimension
+     * @param _benefit
+     */
+    public void add(int _node, Object _ref, int _level, double _ncX, double _ncY, double _nhalfDimension, double _benefit) {
+        if (size == nodes.length) {
+            grow();
+        }
+        int slot = size ++;
+        nodes[slot] = _node;
+        refs[slot] = _ref;
+        levels[slot] = _level;
+        ncXs[slot] = _ncX;
+        ncYs[slot] = _ncY;
+        nhalfDimensions[slot] = _nhalfDimension;
+        benefits[slot] = _benefit;
+        marks[slot] = false;
+
+        // sift up
+        int i = heapSize ++;
+        while (i > 0) {
+            int parent = (i - 1) >> 2;
+            if (benefits[heap[parent]] >= _benefit) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = slot;
+    }
+
+    /**
+     * @return slot of the entry with the largest benefit, without removing it
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * remove the entry with the largest benefit
+     *
+     * @return slot of the entry
+     */
+    public int poll() {
+        int top = heap[0];
+        int last = heap[-- heapSize];
+        double benefit = benefits[last];
+
+        // sift down
+        int i = 0;
+        while (true) {
+            int first = (i << 2) + 1;
+            if (first >= heapSize) break;
+            int end = Math.min(first + 4, heapSize);
+            int max = first;
+            for (int c = first + 1; c < end; c ++) {
+                if (benefits[heap[c]] > benefits[heap[max]]) max = c;
+            }
+            if (benefits[heap[max]] <= benefit) break;
+            heap[i] = heap[max];
+            i = max;
+        }
+        if (heapSize > 0) heap[i] = last;
+        return top;
+    }
+
+    public int node(int _slot) {
+        return nodes[_slot];
+    }
+
+    public Object ref(int _slot) {
+        return refs[_slot];
+    }
+
+    public int level(int _slot) {
+        return levels[_slot];
+    }
+
+    public double ncX(int _slot) {
+        return ncXs[_slot];
+    }
+
+    public double ncY(int _slot) {
+        return ncYs[_slot];
+    }
+
+    public double nhalfDimension(int _slot) {
+        return nhalfDimensions[_slot];
+    }
+
+    public double benefit(int _slot) {
+        return benefits[_slot];
+    }
+
+    public boolean isMarked(int _slot) {
+        return marks[_slot];
+    }
+
+    public void mark(int _slot) {
+        marks[_slot] = true;
+    }
+
+    /**
+     * @return slot of the last added entry
+     */
+    public int lastSlot() {
+        return size - 1;
+    }
+
+    private void grow() {
+        int capacity = nodes.length * 2;
+        nodes = Arrays.copyOf(nodes, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+        levels = Arrays.copyOf(levels, capacity);
+        ncXs = Arrays.copyOf(ncXs, capacity);
+        ncYs = Arrays.copyOf(ncYs, capacity);
+        nhalfDimensions = Arrays.copyOf(nhalfDimensions, capacity);
+        benefits = Arrays.copyOf(benefits, capacity);
+        marks = Arrays.copyOf(marks, capacity);
+        heap = Arrays.copyOf(heap, capacity);
+    }
+}
@@ -21,13 +21,18 @@ public class BinaryMessageBuilder {
     int count;
 
     public BinaryMessageBuilder() {
+        this(0);
+    }
+
+    /**
+     * @param msgType - binary message (0) / binary delta message (Constants.MSG_TYPE_DELTA)
+     */
+    public BinaryMessageBuilder(int msgType) {
         capacity = INIT_CAPACITY;
         buffer = new byte[Constants.HEADER_SIZE + (DOUBLE_BYTES + DOUBLE_BYTES) * INIT_CAPACITY];
         count = 0;
 
         // tag msgType in the header
-        // binary message (0)
-        int msgType = 0;
         // offset of msgType position in the header
         int j = INT_BYTES + 3 * DOUBLE_BYTES;
         buffer[j+0] = (byte)((msgType >> 24) & 0xff);
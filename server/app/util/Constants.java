@@ -28,13 +28,16 @@ public class Constants {
     // Message
     public static int DOUBLE_BYTES = 8;
     public static int INT_BYTES = 4;
+    public static int POINT_BYTES = 32; // heap bytes of a Point object: object header + x + y, 8 bytes aligned
     // ---- header ----
     //  progress  totalTime  treeTime   aggTime  msgType   binary data payload
     // | 4 BYTES | 8 BYTES | 8 BYTES | 8 BYTES | 4 BYTES | ...
     public static int HEADER_SIZE = INT_BYTES + 3 * DOUBLE_BYTES + INT_BYTES;
     public static int MSG_TYPE = 0;
+    public static int MSG_TYPE_DELTA = 2; // binary message whose records are appended to the previous binary message
 
     public static int RADIUS_IN_PIXELS = 1;
+    public static int STENCIL_STEPS = 0; // quantized sub-pixel offsets of precomputed disc stencils, 0 - exact rendering, e.g. 32 - faster but approximate
 
     public static int TILE_RESOLUTION = 1;
 
@@ -49,4 +52,26 @@ public class Constants {
 
     public static String RENDERING_FUNCTION = "snap";
     public static String ERROR_FUNCTION = "L1";
+
+    // Lazy errors
+    public static boolean LAZY_ERRORS = false; // compute errors of a zoom level on first access instead of at the end of loading
+    public static int[] WARMUP_ZOOMS = new int[0]; // zoom levels whose lazy errors are computed in background after loading
+
+    // Ranked samples
+    public static int[] RANKED_ZOOMS = new int[0]; // zoom levels whose samples are ranked after loading
+    public static int RANKED_MAX_SAMPLES = 200000; // maximum number of ranked samples of each zoom level
+    public static int RANKED_MAX_SCAN_FACTOR = 4; // ranked samples scanned by a query are at most this times its sample size
+
+    // Tile queries
+    public static int MAX_QUERY_TILES = 0; // queries covering more tiles are answered by one search over the whole range, 0 - disabled
+    public static long TILE_CACHE_BYTES = 32L * 1024 * 1024; // bytes of cached tile results of each algorithm instance
+
+    // Streaming
+    public static int STREAM_FIRST_CHUNK = 0; // queries with larger sample sizes are answered in chunks, 0 - disabled
+    public static int STREAM_CHUNK_GROWTH = 4; // each chunk is sent when the sample size grows by this times
+
+    // Parallelism
+    public static int PARALLEL_THRESHOLD = 100000; // subtrees with fewer points are processed by a single thread
+    public static int PARALLEL_BFS_SAMPLE_SIZE = 20000; // queries with larger sample sizes are searched on multiple cores
+    public static int PARALLEL_BFS_SUBTREES_PER_CORE = 8; // number of subtrees searched concurrently per core
 }
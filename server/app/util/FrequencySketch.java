@@ -0,0 +1,71 @@
+package util;
+
+/**
+ * Approximate access frequencies of keys for cache admission (TinyLFU)
+ *
+ *  - count-min sketch of DEPTH rows of counters, the frequency of a key is the minimum of its counters,
+ *    so keys not in the cache anymore are still remembered in a fixed amount of memory
+ *  - counters saturate at MAX_COUNT, after sampleSize increments all counters are halved,
+ *    so old hits are aged out and a key popular long ago does not stay in the cache forever
+ */
+public class FrequencySketch {
+
+    static final int DEPTH = 4;
+    static final int MAX_COUNT = 15;
+    static final int[] SEEDS = {0x97CB3127, 0xB4B82E39, 0x8F1B3A6D, 0xC2B2AE35};
+
+    byte[][] counters;
+    int mask;
+    int sampleSize;
+    int additions;
+
+    /**
+     * @param _width - expected number of distinct keys
+     */
+    public FrequencySketch(int _width) {
+        int width = Integer.highestOneBit(Math.max(16, _width) * 2 - 1);
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+        this.additions = 0;
+    }
+
+    public synchronized void increment(Object _key) {
+        int hash = _key.hashCode();
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row ++) {
+            int index = index(hash, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index] ++;
+                added = true;
+            }
+        }
+        if (added && ++ additions == sampleSize) {
+            reset();
+        }
+    }
+
+    public synchronized int frequency(Object _key) {
+        int hash = _key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row ++) {
+            frequency = Math.min(frequency, counters[row][index(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private int index(int _hash, int _row) {
+        int h = _hash * SEEDS[_row];
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i ++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
@@ -0,0 +1,1015 @@
+package util;
+
+import model.Point;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Read-only quadtree compacted into parallel primitive arrays
+ *
+ *  - nodes are laid out in BFS order, root is node 0
+ *  - four children of an internal node are stored contiguously,
+ *    [northWest, northEast, southWest, southEast] starting from firstChild[node],
+ *    a leaf node has firstChild = -1
+ *  - a node without sample has sampleX = sampleY = NaN
+ *  - errors are float and only stored for internal nodes (leaf errors are always 0),
+ *    an internal node at level L stores errorCount[L] errors for indexes [errorFrom[L], errorFrom[L] + errorCount[L]),
+ *    all other errors of the node are 0.
+ *    Because of the BFS layout, the k-th internal node always has firstChild = 1 + 4 * k,
+ *    and internal nodes of one level have contiguous ranks k starting from levelFirstRank[L],
+ *    so its errors start from errors[levelErrorBase[L] + (k - levelFirstRank[L]) * errorCount[L]]
+ *  - an error can be NaN if it is computed lazily on first access, see setError
+ *
+ * Binary snapshot format (.raqt, little endian), see writeToFile:
+ *  ---- header ----
+ *    magic     version   levels    size      internalSize  errorSize  reserved
+ *  | 4 BYTES | 4 BYTES | 4 BYTES | 4 BYTES | 4 BYTES     | 8 BYTES  | 4 BYTES |
+ *  ---- level records (levels x fixed width) ----
+ *    errorFrom  errorCount  levelFirstRank  reserved  levelErrorBase
+ *  | 4 BYTES  | 4 BYTES   | 4 BYTES       | 4 BYTES | 8 BYTES        |
+ *  ---- node records (size x fixed width) ----
+ *    firstChild  count     sampleX   sampleY
+ *  | 4 BYTES   | 4 BYTES | 8 BYTES | 8 BYTES |
+ *  ---- errors of internal nodes in the order of ranks ----
+ *    error     error    ...
+ *  | 4 BYTES | 4 BYTES | ... |
+ *
+ * A snapshot is opened by MappedFrozenQuadTree and queried in place.
+ */
+public class FrozenQuadTree {
+
+    // quadrant offsets of the four children
+    public static final int NORTH_WEST = 0;
+    public static final int NORTH_EAST = 1;
+    public static final int SOUTH_WEST = 2;
+    public static final int SOUTH_EAST = 3;
+
+    static final int INIT_CAPACITY = 1024;
+
+    // binary snapshot format
+    public static final int MAGIC = 0x54514152; // "RAQT" in little endian
+    public static final int VERSION = 2;
+    static final int HEADER_BYTES = 32;
+    static final int LEVEL_RECORD_BYTES = 24;
+    static final int NODE_RECORD_BYTES = 24;
+    static final int FIRST_CHILD_OFFSET = 0;
+    static final int COUNT_OFFSET = 4;
+    static final int SAMPLE_X_OFFSET = 8;
+    static final int SAMPLE_Y_OFFSET = 16;
+    static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    int size; // number of nodes
+    int internalSize; // number of internal nodes
+    long errorSize; // number of stored errors
+
+    // error layout of each level
+    int[] errorFrom; // index of the first stored error of an internal node at this level
+    int[] errorCount; // number of stored errors of an internal node at this level
+    int[] levelFirstRank; // rank of the first internal node at this level
+    long[] levelErrorBase; // position of the errors of the first internal node at this level
+    int lastLevel; // level of the last expanded node
+
+    int[] firstChild;
+    int[] count;
+    double[] sampleX;
+    double[] sampleY;
+    float[] errors;
+
+    /**
+     * estimate the benefit of expanding a node in the best first search
+     *
+     * Note: called concurrently by parallelBfs for large sample sizes
+     */
+    public interface Benefit {
+        double compute(FrozenQuadTree tree, int node, int level, double ncX, double ncY, double nhalfDimension);
+    }
+
+    /**
+     * @param errorFrom - for each level, index of the first error stored for an internal node at this level
+     * @param errorCount - for each level, number of errors stored for an internal node at this level
+     */
+    public FrozenQuadTree(int[] errorFrom, int[] errorCount) {
+        this(errorFrom, errorCount, 0, 0);
+        this.errorSize = 0;
+        this.lastLevel = -1;
+        this.firstChild = new int[INIT_CAPACITY];
+        this.count = new int[INIT_CAPACITY];
+        this.sampleX = new double[INIT_CAPACITY];
+        this.sampleY = new double[INIT_CAPACITY];
+        this.errors = new float[INIT_CAPACITY];
+    }
+
+    /**
+     * for subclasses that do not keep the layout in heap arrays
+     *
+     * @param errorFrom
+     * @param errorCount
+     * @param size
+     * @param internalSize
+     */
+    protected FrozenQuadTree(int[] errorFrom, int[] errorCount, int size, int internalSize) {
+        this.errorFrom = errorFrom;
+        this.errorCount = errorCount;
+        this.levelFirstRank = new int[errorFrom.length];
+        this.levelErrorBase = new long[errorFrom.length];
+        this.size = size;
+        this.internalSize = internalSize;
+    }
+
+    /**
+     * append a new node as a leaf to the end of the layout
+     *
+     * @param _count
+     * @param _sample - null if node has no sample
+     * @return index of the new node
+     */
+    public int append(int _count, Point _sample) {
+        if (size == firstChild.length) {
+            int capacity = firstChild.length * 2;
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            count = Arrays.copyOf(count, capacity);
+            sampleX = Arrays.copyOf(sampleX, capacity);
+            sampleY = Arrays.copyOf(sampleY, capacity);
+        }
+        firstChild[size] = -1;
+        count[size] = _count;
+        sampleX[size] = _sample == null? Double.NaN: _sample.getX();
+        sampleY[size] = _sample == null? Double.NaN: _sample.getY();
+        return size ++;
+    }
+
+    /**
+     * append the four children of given node to the end of the layout,
+     * nodes must be expanded in BFS order
+     *
+     * @param _node
+     * @param _level - level of the node
+     * @param _errors - errorCount[_level] errors between sample on node and samples on children,
+     *                  null if all of them are 0
+     */
+    public void expand(int _node, int _level, float[] _errors) {
+        firstChild[_node] = size;
+        // first internal node of a new level
+        while (lastLevel < _level) {
+            lastLevel ++;
+            levelFirstRank[lastLevel] = internalSize;
+            levelErrorBase[lastLevel] = errorSize;
+        }
+        int stride = errorCount[_level];
+        if (errorSize + stride > errors.length) {
+            errors = Arrays.copyOf(errors, (int) Math.max(errors.length * 2L, errorSize + stride));
+        }
+        if (_errors != null) {
+            System.arraycopy(_errors, 0, errors, (int) errorSize, stride);
+        }
+        errorSize += stride;
+        internalSize ++;
+    }
+
+    /**
+     * shrink all arrays to the exact size of the layout
+     */
+    public void trim() {
+        firstChild = Arrays.copyOf(firstChild, size);
+        count = Arrays.copyOf(count, size);
+        sampleX = Arrays.copyOf(sampleX, size);
+        sampleY = Arrays.copyOf(sampleY, size);
+        errors = Arrays.copyOf(errors, (int) errorSize);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return bytes of heap arrays holding the layout
+     */
+    public long heapBytes() {
+        return (long) firstChild.length * Integer.BYTES + (long) count.length * Integer.BYTES
+                + (long) sampleX.length * Double.BYTES + (long) sampleY.length * Double.BYTES
+                + (long) errors.length * Float.BYTES + levelBytes();
+    }
+
+    protected long levelBytes() {
+        return (long) (errorFrom.length + errorCount.length + levelFirstRank.length) * Integer.BYTES
+                + (long) levelErrorBase.length * Long.BYTES;
+    }
+
+    public int internalSize() {
+        return internalSize;
+    }
+
+    /**
+     * @param _errorFrom
+     * @param _errorCount
+     * @return true if errors are stored with given layout
+     */
+    public boolean hasErrorLayout(int[] _errorFrom, int[] _errorCount) {
+        return Arrays.equals(errorFrom, _errorFrom) && Arrays.equals(errorCount, _errorCount);
+    }
+
+    public boolean isLeaf(int node) {
+        return firstChild[node] < 0;
+    }
+
+    public int child(int node, int quadrant) {
+        return firstChild[node] + quadrant;
+    }
+
+    public int count(int node) {
+        return count[node];
+    }
+
+    public boolean hasSample(int node) {
+        return !Double.isNaN(sampleX[node]);
+    }
+
+    public double sampleX(int node) {
+        return sampleX[node];
+    }
+
+    public double sampleY(int node) {
+        return sampleY[node];
+    }
+
+    public double error(int node, int level, int i) {
+        long position = errorPosition(firstChild[node], level, i);
+        if (position < 0) return 0.0;
+        return errors[(int) position];
+    }
+
+    /**
+     * memoize a lazily computed error of an internal node
+     *
+     * @param node
+     * @param level
+     * @param i
+     * @param error
+     */
+    public void setError(int node, int level, int i, float error) {
+        long position = errorPosition(firstChild[node], level, i);
+        if (position >= 0) errors[(int) position] = error;
+    }
+
+    /**
+     * @param _firstChild - first child of the node
+     * @param _level - level of the node
+     * @param _i
+     * @return position of the i-th error of the node in errors, -1 if the error is not stored (always 0)
+     */
+    long errorPosition(int _firstChild, int _level, int _i) {
+        if (_firstChild < 0) return -1;
+        int j = _i - errorFrom[_level];
+        int stride = errorCount[_level];
+        if (j < 0 || j >= stride) return -1;
+        int rank = (_firstChild - 1) / 4;
+        return levelErrorBase[_level] + (long) (rank - levelFirstRank[_level]) * stride + j;
+    }
+
+    public static boolean intersectsBBox(double c1X, double c1Y, double halfDimension1,
+                                         double c2X, double c2Y, double halfWidth2, double halfHeight2) {
+        // bbox 1
+        double left = c1X - halfDimension1;
+        double right = c1X + halfDimension1;
+        double bottom = c1Y + halfDimension1;
+        double top = c1Y - halfDimension1;
+        // bbox 2
+        double minX = c2X - halfWidth2;
+        double maxX = c2X + halfWidth2;
+        double minY = c2Y - halfHeight2;
+        double maxY = c2Y + halfHeight2;
+
+        // right to the right
+        if (minX > right) return false;
+        // left to the left
+        if (maxX < left) return false;
+        // above the bottom
+        if (minY > bottom) return false;
+        // below the top
+        if (maxY < top) return false;
+
+        return true;
+    }
+
+    /**
+     * breadth first search
+     *
+     * explore nodes with higher estimated benefit first
+     * - benefit = gain of quality / cost of sample size
+     *
+     * @param _rcX
+     * @param _rcY
+     * @param _rhalfWidth
+     * @param _rhalfHeight
+     * @param _targetSampleSize
+     * @param _benefit - benefit function of the algorithm for current query
+     * @param _stoppedAtLevels - for query stats, count how many nodes stopped at a certain level
+     * @return
+     */
+    public List<Point> bfs(double _rcX, double _rcY, double _rhalfWidth, double _rhalfHeight,
+                           int _targetSampleSize, Benefit _benefit, int[] _stoppedAtLevels) {
+        return bfs(0, 0, 0.5, 0.5, 0.5, _rcX, _rcY, _rhalfWidth, _rhalfHeight, _targetSampleSize, _benefit, _stoppedAtLevels);
+    }
+
+    /**
+     * breadth first search in the subtree of given node,
+     * sample sizes >= Constants.PARALLEL_BFS_SAMPLE_SIZE are searched on multiple cores
+     *
+     * @param _node - root of the subtree
+     * @param _level - level of _node
+     * @param _ncX
+     * @param _ncY
+     * @param _nhalfDimension
+     * @param _rcX
+     * @param _rcY
+     * @param _rhalfWidth
+     * @param _rhalfHeight
+     * @param _targetSampleSize
+     * @param _benefit
+     * @param _stoppedAtLevels
+     * @return
+     */
+    public List<Point> bfs(int _node, int _level, double _ncX, double _ncY, double _nhalfDimension,
+                           double _rcX, double _rcY, double _rhalfWidth, double _rhalfHeight,
+                           int _targetSampleSize, Benefit _benefit, int[] _stoppedAtLevels) {
+        if (_targetSampleSize >= Constants.PARALLEL_BFS_SAMPLE_SIZE && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            return parallelBfs(_node, _level, _ncX, _ncY, _nhalfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight,
+                    _targetSampleSize, _benefit, _stoppedAtLevels);
+        }
+        return sequentialBfs(_node, _level, _ncX, _ncY, _nhalfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight,
+                _targetSampleSize, _benefit, _stoppedAtLevels);
+    }
+
+    List<Point> sequentialBfs(int _node, int _level, double _ncX, double _ncY, double _nhalfDimension,
+                              double _rcX, double _rcY, double _rhalfWidth, double _rhalfHeight,
+                              int _targetSampleSize, Benefit _benefit, int[] _stoppedAtLevels) {
+
+        List<Point> result = new ArrayList<>();
+
+        // explore larger estimatedProfit node first
+        BfsFrontier queue = BfsFrontier.acquire();
+
+        double rootBenefit = _benefit.compute(this, _node, _level, _ncX, _ncY, _nhalfDimension);
+        // add root node
+        queue.add(_node, null, _level, _ncX, _ncY, _nhalfDimension, rootBenefit);
+        int availableSampleSize = _targetSampleSize - Constants.NODE_SAMPLE_SIZE;
+
+        while (!queue.isEmpty()) {
+
+            // pick the largest benefit node
+            int entry = queue.poll();
+            int level = queue.level(entry);
+            int node = queue.node(entry);
+            int sampleSize = hasSample(node)? Constants.NODE_SAMPLE_SIZE: 0;
+
+            // if the largest estimated benefit is 0 or enough samples, entering collecting samples mode,
+            // all the other nodes in the queue are not expanded either, so collect them at once
+            if (queue.benefit(entry) <= 0.0 || availableSampleSize <= 0) {
+                collectSample(node, level, result, _stoppedAtLevels);
+                for (int i = 0; i < queue.heapSize(); i ++) {
+                    int slot = queue.heapSlot(i);
+                    collectSample(queue.node(slot), queue.level(slot), result, _stoppedAtLevels);
+                }
+                break;
+            }
+
+            // otherwise, expand this node
+            double ncX = queue.ncX(entry);
+            double ncY = queue.ncY(entry);
+            double halfDimension = queue.nhalfDimension(entry) / 2;
+            availableSampleSize += sampleSize;
+
+            for (int quadrant = NORTH_WEST; quadrant <= SOUTH_EAST; quadrant ++) {
+                double cX = (quadrant & 1) == 0? ncX - halfDimension: ncX + halfDimension;
+                double cY = (quadrant & 2) == 0? ncY - halfDimension: ncY + halfDimension;
+                // ignore this node if the range does not intersect with it
+                if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
+                    int child = child(node, quadrant);
+                    queue.add(child, null, level + 1, cX, cY, halfDimension, _benefit.compute(this, child, level + 1, cX, cY, halfDimension));
+                    if (hasSample(child)) {
+                        availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
+                    }
+                }
+            }
+        }
+        queue.release();
+
+        return result;
+    }
+
+    /**
+     * breadth first search on multiple cores
+     *
+     *  - expand the top of the tree sequentially the same way as sequentialBfs,
+     *    until the frontier has enough nodes to keep all cores busy
+     *  - split the frontier into independent subtrees, the remaining sample size is shared by them
+     *    in proportion to their number of points
+     *  - search the subtrees concurrently with sequentialBfs and concatenate the results
+     *
+     * Note: the sample size of the result is the same as sequentialBfs,
+     *       samples can differ where the best first order crosses subtrees.
+     *       _benefit is called concurrently.
+     */
+    List<Point> parallelBfs(int _node, int _level, double _ncX, double _ncY, double _nhalfDimension,
+                            double _rcX, double _rcY, double _rhalfWidth, double _rhalfHeight,
+                            int _targetSampleSize, Benefit _benefit, int[] _stoppedAtLevels) {
+
+        List<Point> result = new ArrayList<>();
+        int frontierSize = ForkJoinPool.getCommonPoolParallelism() * Constants.PARALLEL_BFS_SUBTREES_PER_CORE;
+
+        BfsFrontier queue = BfsFrontier.acquire();
+        queue.add(_node, null, _level, _ncX, _ncY, _nhalfDimension,
+                _benefit.compute(this, _node, _level, _ncX, _ncY, _nhalfDimension));
+        int availableSampleSize = _targetSampleSize - Constants.NODE_SAMPLE_SIZE;
+
+        // expand the top of the tree
+        while (!queue.isEmpty() && queue.heapSize() < frontierSize) {
+            int entry = queue.peek();
+            int level = queue.level(entry);
+            int node = queue.node(entry);
+
+            // the search is finished before the frontier is large enough
+            if (queue.benefit(entry) <= 0.0 || availableSampleSize <= 0) {
+                for (int i = 0; i < queue.heapSize(); i ++) {
+                    int slot = queue.heapSlot(i);
+                    collectSample(queue.node(slot), queue.level(slot), result, _stoppedAtLevels);
+                }
+                queue.release();
+                return result;
+            }
+
+            queue.poll();
+            double ncX = queue.ncX(entry);
+            double ncY = queue.ncY(entry);
+            double halfDimension = queue.nhalfDimension(entry) / 2;
+            availableSampleSize += hasSample(node)? Constants.NODE_SAMPLE_SIZE: 0;
+
+            for (int quadrant = NORTH_WEST; quadrant <= SOUTH_EAST; quadrant ++) {
+                double cX = (quadrant & 1) == 0? ncX - halfDimension: ncX + halfDimension;
+                double cY = (quadrant & 2) == 0? ncY - halfDimension: ncY + halfDimension;
+                // ignore this node if the range does not intersect with it
+                if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
+                    int child = child(node, quadrant);
+                    queue.add(child, null, level + 1, cX, cY, halfDimension, _benefit.compute(this, child, level + 1, cX, cY, halfDimension));
+                    if (hasSample(child)) {
+                        availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
+                    }
+                }
+            }
+        }
+
+        // split the frontier, nodes that can not be expanded are collected directly
+        long totalCount = 0;
+        for (int i = 0; i < queue.heapSize(); i ++) {
+            int slot = queue.heapSlot(i);
+            if (queue.benefit(slot) > 0.0) {
+                totalCount += count(queue.node(slot));
+            }
+            else {
+                collectSample(queue.node(slot), queue.level(slot), result, _stoppedAtLevels);
+            }
+        }
+        List<BfsTask> tasks = new ArrayList<>();
+        int remainingSampleSize = Math.max(0, availableSampleSize);
+        for (int i = 0; i < queue.heapSize(); i ++) {
+            int slot = queue.heapSlot(i);
+            if (queue.benefit(slot) <= 0.0) continue;
+            int node = queue.node(slot);
+            int share = (int) (totalCount == 0? 0: (long) Math.max(0, availableSampleSize) * count(node) / totalCount);
+            remainingSampleSize -= share;
+            BfsTask task = new BfsTask(node, queue.level(slot), queue.ncX(slot), queue.ncY(slot), queue.nhalfDimension(slot),
+                    (hasSample(node)? Constants.NODE_SAMPLE_SIZE: 0) + share);
+            tasks.add(task);
+        }
+        queue.release();
+        // sample size left by rounding down goes to the first subtrees
+        for (int i = 0; i < remainingSampleSize && i < tasks.size(); i ++) {
+            tasks.get(i).targetSampleSize ++;
+        }
+
+        // search the subtrees concurrently
+        for (BfsTask task : tasks) {
+            task.tree = this;
+            task.rcX = _rcX;
+            task.rcY = _rcY;
+            task.rhalfWidth = _rhalfWidth;
+            task.rhalfHeight = _rhalfHeight;
+            task.benefit = _benefit;
+            task.stoppedAtLevels = new int[_stoppedAtLevels.length];
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        for (BfsTask task : tasks) {
+            result.addAll(task.getRawResult());
+            for (int i = 0; i < _stoppedAtLevels.length; i ++) {
+                _stoppedAtLevels[i] += task.stoppedAtLevels[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * search one subtree of parallelBfs
+     */
+    static class BfsTask extends RecursiveTask<List<Point>> {
+        private static final long serialVersionUID = 1L;
+
+        FrozenQuadTree tree;
+        int node;
+        int level;
+        double ncX;
+        double ncY;
+        double nhalfDimension;
+        double rcX;
+        double rcY;
+        double rhalfWidth;
+        double rhalfHeight;
+        int targetSampleSize;
+        Benefit benefit;
+        int[] stoppedAtLevels;
+
+        BfsTask(int _node, int _level, double _ncX, double _ncY, double _nhalfDimension, int _targetSampleSize) {
+            node = _node;
+            level = _level;
+            ncX = _ncX;
+            ncY = _ncY;
+            nhalfDimension = _nhalfDimension;
+            targetSampleSize = _targetSampleSize;
+        }
+
+        @Override
+        protected List<Point> compute() {
+            return tree.sequentialBfs(node, level, ncX, ncY, nhalfDimension, rcX, rcY, rhalfWidth, rhalfHeight,
+                    targetSampleSize, benefit, stoppedAtLevels);
+        }
+    }
+
+    /**
+     * Rank samples of the whole tree in the order they enter the result of the best first search,
+     * the result of a search over the whole extent with sample size k is about the first k ranked samples
+     *
+     *  - a node's sample is always the sample of one of its children,
+     *    so expanding a node adds the samples of its other children to the result
+     *  - nodes are expanded in benefit order until the benefit is <= 0 or _maxSamples samples are ranked
+     *
+     * @param _maxSamples
+     * @param _benefit - benefit function of a zoom level
+     * @return nodes whose samples are ranked, in rank order
+     */
+    public int[] rankSamples(int _maxSamples, Benefit _benefit) {
+        int[] ranked = new int[Math.max(0, Math.min(_maxSamples, size))];
+        int rankedSize = 0;
+        if (ranked.length == 0 || !hasSample(0)) return ranked;
+
+        BfsFrontier queue = BfsFrontier.acquire();
+        queue.add(0, null, 0, 0.5, 0.5, 0.5, _benefit.compute(this, 0, 0, 0.5, 0.5, 0.5));
+        ranked[rankedSize ++] = 0;
+
+        while (!queue.isEmpty() && rankedSize < ranked.length) {
+            int entry = queue.poll();
+            if (queue.benefit(entry) <= 0.0) break;
+
+            int level = queue.level(entry);
+            int node = queue.node(entry);
+            double ncX = queue.ncX(entry);
+            double ncY = queue.ncY(entry);
+            double halfDimension = queue.nhalfDimension(entry) / 2;
+            boolean inherited = false;
+
+            for (int quadrant = NORTH_WEST; quadrant <= SOUTH_EAST; quadrant ++) {
+                double cX = (quadrant & 1) == 0? ncX - halfDimension: ncX + halfDimension;
+                double cY = (quadrant & 2) == 0? ncY - halfDimension: ncY + halfDimension;
+                int child = child(node, quadrant);
+                if (!hasSample(child)) continue;
+                queue.add(child, null, level + 1, cX, cY, halfDimension, _benefit.compute(this, child, level + 1, cX, cY, halfDimension));
+                // the child this node's sample was selected from keeps its rank
+                if (!inherited && sampleX(child) == sampleX(node) && sampleY(child) == sampleY(node)) {
+                    inherited = true;
+                }
+                else if (rankedSize < ranked.length) {
+                    ranked[rankedSize ++] = child;
+                }
+            }
+        }
+        queue.release();
+
+        return rankedSize == ranked.length? ranked: Arrays.copyOf(ranked, rankedSize);
+    }
+
+    /**
+     * Answer a range search with the ranked samples of rankSamples
+     *
+     * @param _ranked
+     * @param _minX
+     * @param _minY
+     * @param _maxX
+     * @param _maxY
+     * @param _targetSampleSize
+     * @param _maxScan - maximum number of ranked samples to scan
+     * @param _complete - whether _ranked has all samples until the benefit is <= 0, not cut by the maximum size
+     * @return first _targetSampleSize ranked samples in the range,
+     *         null if they are not found in the first _maxScan ranked samples
+     */
+    public List<Point> rankedRangeSearch(int[] _ranked, double _minX, double _minY, double _maxX, double _maxY,
+                                         int _targetSampleSize, long _maxScan, boolean _complete) {
+        List<Point> result = new ArrayList<>();
+        int scan = (int) Math.min(_ranked.length, _maxScan);
+        for (int i = 0; i < scan && result.size() < _targetSampleSize; i ++) {
+            int node = _ranked[i];
+            double x = sampleX(node);
+            double y = sampleY(node);
+            if (x >= _minX && x <= _maxX && y >= _minY && y <= _maxY) {
+                result.add(new Point(x, y));
+            }
+        }
+        // fewer samples in the range are fine only if all ranked samples are scanned and nothing is left unranked
+        if (result.size() < _targetSampleSize && (scan < _ranked.length || !_complete)) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * consume chunks of samples of progressiveBfs
+     */
+    public interface ChunkConsumer {
+        /**
+         * @param _samples - samples added by this chunk
+         * @param _sentSampleSize - number of samples sent so far including this chunk
+         * @param _last - whether this is the last chunk
+         */
+        void accept(List<Point> _samples, int _sentSampleSize, boolean _last);
+    }
+
+    /**
+     * breadth first search sending samples in benefit order as a sequence of chunks,
+     *
+     *  - the first chunk is the result of the search with sample size _firstChunkSize,
+     *    following chunks are sent each time the sample size grows by Constants.STREAM_CHUNK_GROWTH times
+     *  - a node's sample is always the sample of one of its children,
+     *    so expanding a node only adds samples to the previous result,
+     *    each chunk after the first only carries the samples added since the previous chunk
+     *  - the union of all chunks is the result of sequentialBfs,
+     *    plus the few sent samples whose child node turned out to be outside the range
+     *
+     * @param _rcX
+     * @param _rcY
+     * @param _rhalfWidth
+     * @param _rhalfHeight
+     * @param _targetSampleSize
+     * @param _firstChunkSize
+     * @param _benefit
+     * @param _stoppedAtLevels
+     * @param _chunks
+     */
+    public void progressiveBfs(double _rcX, double _rcY, double _rhalfWidth, double _rhalfHeight,
+                               int _targetSampleSize, int _firstChunkSize, Benefit _benefit, int[] _stoppedAtLevels,
+                               ChunkConsumer _chunks) {
+
+        BfsFrontier queue = BfsFrontier.acquire();
+        queue.add(0, null, 0, 0.5, 0.5, 0.5, _benefit.compute(this, 0, 0, 0.5, 0.5, 0.5));
+        int availableSampleSize = _targetSampleSize - Constants.NODE_SAMPLE_SIZE;
+        int nextChunkSize = _firstChunkSize;
+        int sentSampleSize = 0;
+
+        while (!queue.isEmpty()) {
+
+            // send samples of current frontier not sent yet
+            if (_targetSampleSize - availableSampleSize >= nextChunkSize) {
+                List<Point> chunk = new ArrayList<>();
+                for (int i = 0; i < queue.heapSize(); i ++) {
+                    int slot = queue.heapSlot(i);
+                    int node = queue.node(slot);
+                    if (hasSample(node) && !queue.isMarked(slot)) {
+                        chunk.add(new Point(sampleX(node), sampleY(node)));
+                        queue.mark(slot);
+                    }
+                }
+                sentSampleSize += chunk.size();
+                _chunks.accept(chunk, sentSampleSize, false);
+                nextChunkSize = (int) Math.min(Integer.MAX_VALUE, (long) nextChunkSize * Constants.STREAM_CHUNK_GROWTH);
+            }
+
+            int entry = queue.peek();
+            int level = queue.level(entry);
+            int node = queue.node(entry);
+
+            // if the largest estimated benefit is 0 or enough samples, collect all the nodes in the queue
+            if (queue.benefit(entry) <= 0.0 || availableSampleSize <= 0) {
+                break;
+            }
+
+            // otherwise, expand this node
+            queue.poll();
+            boolean sent = queue.isMarked(entry);
+            double ncX = queue.ncX(entry);
+            double ncY = queue.ncY(entry);
+            double halfDimension = queue.nhalfDimension(entry) / 2;
+            availableSampleSize += hasSample(node)? Constants.NODE_SAMPLE_SIZE: 0;
+
+            for (int quadrant = NORTH_WEST; quadrant <= SOUTH_EAST; quadrant ++) {
+                double cX = (quadrant & 1) == 0? ncX - halfDimension: ncX + halfDimension;
+                double cY = (quadrant & 2) == 0? ncY - halfDimension: ncY + halfDimension;
+                // ignore this node if the range does not intersect with it
+                if (intersectsBBox(cX, cY, halfDimension, _rcX, _rcY, _rhalfWidth, _rhalfHeight)) {
+                    int child = child(node, quadrant);
+                    queue.add(child, null, level + 1, cX, cY, halfDimension, _benefit.compute(this, child, level + 1, cX, cY, halfDimension));
+                    if (hasSample(child)) {
+                        availableSampleSize -= Constants.NODE_SAMPLE_SIZE;
+                        // the sent sample of this node is passed on to the child it was selected from
+                        if (sent && sampleX(child) == sampleX(node) && sampleY(child) == sampleY(node)) {
+                            queue.mark(queue.lastSlot());
+                            sent = false;
+                        }
+                    }
+                }
+            }
+        }
+
+        // the last chunk
+        List<Point> chunk = new ArrayList<>();
+        for (int i = 0; i < queue.heapSize(); i ++) {
+            int slot = queue.heapSlot(i);
+            int node = queue.node(slot);
+            if (hasSample(node)) {
+                _stoppedAtLevels[queue.level(slot)] ++;
+                if (!queue.isMarked(slot)) {
+                    chunk.add(new Point(sampleX(node), sampleY(node)));
+                }
+            }
+        }
+        queue.release();
+        sentSampleSize += chunk.size();
+        _chunks.accept(chunk, sentSampleSize, true);
+    }
+
+    private void collectSample(int _node, int _level, List<Point> _result, int[] _stoppedAtLevels) {
+        if (hasSample(_node)) {
+            _stoppedAtLevels[_level] ++;
+            _result.add(new Point(sampleX(_node), sampleY(_node)));
+        }
+    }
+
+    /**
+     * @param _zoom
+     * @param _minX
+     * @param _minY
+     * @param _maxX
+     * @param _maxY
+     * @return number of web map tiles at given zoom level covering the range
+     */
+    public static long numberOfTiles(int _zoom, double _minX, double _minY, double _maxX, double _maxY) {
+        int tiles = 1 << _zoom;
+        long width = tileIndex(_maxX, tiles) - tileIndex(_minX, tiles) + 1;
+        long height = tileIndex(_maxY, tiles) - tileIndex(_minY, tiles) + 1;
+        return width * height;
+    }
+
+    private static int tileIndex(double _coordinate, int _tiles) {
+        return (int) Math.min(_tiles - 1, Math.max(0, Math.floor(_coordinate * _tiles)));
+    }
+
+    /**
+     * descend from root to the node of given tile,
+     * the node of a tile at zoom level z is at level z
+     *
+     * @param _zoom
+     * @param _tileX
+     * @param _tileY
+     * @return node of the tile, or the leaf node at a lower level containing the tile
+     */
+    int tileNode(int _zoom, int _tileX, int _tileY) {
+        int node = 0;
+        for (int level = 0; level < _zoom && !isLeaf(node); level ++) {
+            int shift = _zoom - level - 1;
+            node = child(node, (((_tileY >> shift) & 1) << 1) | ((_tileX >> shift) & 1));
+        }
+        return node;
+    }
+
+    private boolean sampleInTile(int _node, int _zoom, int _tileX, int _tileY) {
+        if (!hasSample(_node)) return false;
+        int tiles = 1 << _zoom;
+        return tileIndex(sampleX(_node), tiles) == _tileX && tileIndex(sampleY(_node), tiles) == _tileY;
+    }
+
+    /**
+     * @param _zoom
+     * @param _tileX
+     * @param _tileY
+     * @return number of points in given tile
+     */
+    public int tileCount(int _zoom, int _tileX, int _tileY) {
+        int node = tileNode(_zoom, _tileX, _tileY);
+        if (isLeaf(node)) {
+            return sampleInTile(node, _zoom, _tileX, _tileY)? count(node): 0;
+        }
+        return count(node);
+    }
+
+    /**
+     * breadth first search in given tile only
+     *
+     * @param _zoom
+     * @param _tileX
+     * @param _tileY
+     * @param _targetSampleSize
+     * @param _benefit
+     * @param _stoppedAtLevels
+     * @return
+     */
+    public List<Point> bfsTile(int _zoom, int _tileX, int _tileY, int _targetSampleSize,
+                               Benefit _benefit, int[] _stoppedAtLevels) {
+        int node = tileNode(_zoom, _tileX, _tileY);
+        if (isLeaf(node)) {
+            List<Point> result = new ArrayList<>();
+            if (sampleInTile(node, _zoom, _tileX, _tileY)) {
+                result.add(new Point(sampleX(node), sampleY(node)));
+            }
+            return result;
+        }
+        double halfDimension = 0.5 / (1 << _zoom);
+        double cX = (2 * _tileX + 1) * halfDimension;
+        double cY = (2 * _tileY + 1) * halfDimension;
+        return bfs(node, _zoom, cX, cY, halfDimension, cX, cY, halfDimension, halfDimension,
+                _targetSampleSize, _benefit, _stoppedAtLevels);
+    }
+
+    /**
+     * breadth first search tile by tile over all web map tiles at given zoom level covering the range
+     *
+     *  - sample size of each tile is proportional to its share of the points in the range, rounded down,
+     *    the sample size left over is given to tiles whose share is less than 1 sample, one sample each,
+     *    so the sample sizes of all tiles add up to at most _targetSampleSize
+     *  - sample size of each tile is quantized down by TileCache.sampleSizeStep() so that results can be reused while panning
+     *  - result of each tile is looked up in the cache before searching it
+     *  - each tile is searched whole, one after another, so samples of partly covered tiles may fall outside the range,
+     *    and tiles are not searched on multiple cores unless their own sample sizes are large enough
+     *
+     * @param _zoom
+     * @param _minX
+     * @param _minY
+     * @param _maxX
+     * @param _maxY
+     * @param _targetSampleSize
+     * @param _benefit
+     * @param _cache - results of tiles of this tree for the same benefit function
+     * @param _stoppedAtLevels
+     * @return for each tile, longitude/latitude pairs of its samples
+     */
+    public List<double[]> bfsTiles(int _zoom, double _minX, double _minY, double _maxX, double _maxY,
+                                   int _targetSampleSize, Benefit _benefit, TileCache _cache, int[] _stoppedAtLevels) {
+        int tiles = 1 << _zoom;
+        int tileX0 = tileIndex(_minX, tiles);
+        int tileY0 = tileIndex(_minY, tiles);
+        int tileX1 = tileIndex(_maxX, tiles);
+        int tileY1 = tileIndex(_maxY, tiles);
+
+        // count points of each tile
+        int width = tileX1 - tileX0 + 1;
+        int height = tileY1 - tileY0 + 1;
+        int[] counts = new int[width * height];
+        long totalCount = 0;
+        for (int j = 0; j < height; j ++) {
+            for (int i = 0; i < width; i ++) {
+                counts[j * width + i] = tileCount(_zoom, tileX0 + i, tileY0 + j);
+                totalCount += counts[j * width + i];
+            }
+        }
+
+        // sample size of each tile
+        int[] sampleSizes = new int[width * height];
+        long leftSampleSize = _targetSampleSize;
+        for (int k = 0; k < counts.length; k ++) {
+            sampleSizes[k] = (int) ((long) _targetSampleSize * counts[k] / Math.max(1, totalCount));
+            leftSampleSize -= sampleSizes[k];
+        }
+        for (int k = 0; k < counts.length && leftSampleSize > 0; k ++) {
+            if (counts[k] > 0 && sampleSizes[k] == 0) {
+                sampleSizes[k] = 1;
+                leftSampleSize --;
+            }
+        }
+
+        List<double[]> result = new ArrayList<>();
+        for (int j = 0; j < height; j ++) {
+            for (int i = 0; i < width; i ++) {
+                int sampleSize = sampleSizes[j * width + i];
+                if (sampleSize == 0) continue;
+                int sampleSizeStep = TileCache.sampleSizeStep(sampleSize);
+                long key = TileCache.key(_zoom, tileX0 + i, tileY0 + j, sampleSizeStep);
+                double[] samples = _cache.get(key);
+                if (samples == null) {
+                    List<Point> points = bfsTile(_zoom, tileX0 + i, tileY0 + j, TileCache.sampleSize(sampleSizeStep), _benefit, _stoppedAtLevels);
+                    samples = new double[points.size() * 2];
+                    for (int k = 0; k < points.size(); k ++) {
+                        samples[2 * k] = Mercator.xLng(points.get(k).getX());
+                        samples[2 * k + 1] = Mercator.yLat(points.get(k).getY());
+                    }
+                    _cache.put(key, samples);
+                }
+                result.add(samples);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Write this layout to a binary snapshot file
+     *
+     * - the snapshot is written to a temporary file first and then moved to fileName,
+     *   so that processes still mapping the old snapshot are not affected
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public void writeToFile(String fileName) throws IOException {
+        Path path = Paths.get(fileName);
+        Path tmpPath = Paths.get(fileName + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            // header
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(errorFrom.length);
+            buffer.putInt(size);
+            buffer.putInt(internalSize);
+            buffer.putLong(errorSize);
+            while (buffer.position() < HEADER_BYTES) buffer.put((byte) 0);
+            // level records
+            for (int level = 0; level < errorFrom.length; level ++) {
+                if (buffer.remaining() < LEVEL_RECORD_BYTES) flush(channel, buffer);
+                buffer.putInt(errorFrom[level]);
+                buffer.putInt(errorCount[level]);
+                buffer.putInt(levelFirstRank[level]);
+                buffer.putInt(0);
+                buffer.putLong(levelErrorBase[level]);
+            }
+            // node records
+            for (int node = 0; node < size; node ++) {
+                if (buffer.remaining() < NODE_RECORD_BYTES) flush(channel, buffer);
+                buffer.putInt(isLeaf(node)? -1: child(node, NORTH_WEST));
+                buffer.putInt(count(node));
+                buffer.putDouble(sampleX(node));
+                buffer.putDouble(sampleY(node));
+            }
+            // errors, internal nodes are visited in the order of their ranks
+            int level = 0;
+            int levelEnd = 1; // nodes of next level start after the children of all internal nodes visited so far
+            int rank = 0;
+            for (int node = 0; node < size; node ++) {
+                if (node == levelEnd) {
+                    level ++;
+                    levelEnd = 1 + 4 * rank;
+                }
+                if (isLeaf(node)) continue;
+                rank ++;
+                for (int i = errorFrom[level]; i < errorFrom[level] + errorCount[level]; i ++) {
+                    if (buffer.remaining() < Float.BYTES) flush(channel, buffer);
+                    buffer.putFloat((float) error(node, level, i));
+                }
+            }
+            flush(channel, buffer);
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Check if given file is a binary snapshot written by writeToFile
+     *
+     * @param fileName
+     * @return
+     */
+    public static boolean isSnapshot(String fileName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) return false;
+            }
+            return buffer.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -18,5 +18,10 @@ public interface I2DIndex<PointType> {
 
     int range(I2DPoint leftBottom, I2DPoint rightTop, I2DIndexNodeHandler nodeHandler);
 
+    /**
+     * @return number of nodes, duplicate points share a node
+     */
+    int nodeCount();
+
     void print();
 }
@@ -38,6 +38,7 @@ public class KDTree<PointType extends I2DPoint> implements I2DIndex<PointType> {
     private Node root;
     private int height = 0;
     private int size = 0;
+    private int nodeCount = 0;
 
     public KDTree() {
         this.root = null;
@@ -49,6 +50,7 @@ public class KDTree<PointType extends I2DPoint> implements I2DIndex<PointType> {
         // empty tree
         if (root == null) {
             root = new Node(point, true, 0);
+            nodeCount ++;
             height = 1;
             return;
         }
@@ -102,6 +104,7 @@ public class KDTree<PointType extends I2DPoint> implements I2DIndex<PointType> {
         }
         // parentNode clusters to the parent of new node
         currentNode = new Node(point, align, parentNode.depth + 1);
+        nodeCount ++;
         if (currentNode.depth + 1 > height) {
             height = currentNode.depth + 1;
         }
@@ -314,6 +317,10 @@ public class KDTree<PointType extends I2DPoint> implements I2DIndex<PointType> {
         return 0 ;
     }
 
+    public int nodeCount() {
+        return nodeCount;
+    }
+
     public void print() {
         System.out.println("=================== KDTree ===================");
         System.out.println();
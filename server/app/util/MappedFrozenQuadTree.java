@@ -0,0 +1,168 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * FrozenQuadTree queried in place from a read-only memory mapped binary snapshot
+ *
+ *  - there is no deserialization step, pages are loaded lazily by the OS on first access
+ *    and the page cache is shared between all processes mapping the same snapshot
+ *  - a MappedByteBuffer can not exceed 2GB, so each section of the snapshot is mapped as chunks,
+ *    a chunk holds a power of 2 number of records and records never cross chunks
+ */
+public class MappedFrozenQuadTree extends FrozenQuadTree {
+
+    ByteBuffer[] nodeChunks;
+    int nodeChunkShift;
+    int nodeChunkMask;
+
+    ByteBuffer[] errorChunks;
+    int errorChunkShift;
+    long errorChunkMask;
+
+    MappedFrozenQuadTree(int[] errorFrom, int[] errorCount, int size, int internalSize) {
+        super(errorFrom, errorCount, size, internalSize);
+    }
+
+    /**
+     * Map a binary snapshot written by FrozenQuadTree.writeToFile
+     *
+     * @param fileName
+     * @return
+     * @throws IOException - if the file is not a snapshot of current format version
+     */
+    public static MappedFrozenQuadTree mapFromFile(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(fileName + " is not a binary snapshot.");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException(fileName + " has snapshot version " + version + ", expected " + VERSION + ".");
+            }
+            int levels = header.getInt(8);
+            int size = header.getInt(12);
+            int internalSize = header.getInt(16);
+            long errorSize = header.getLong(20);
+
+            // level records are small, read them into heap
+            long levelsPosition = HEADER_BYTES;
+            ByteBuffer levelRecords = channel.map(FileChannel.MapMode.READ_ONLY, levelsPosition,
+                    (long) levels * LEVEL_RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            int[] errorFrom = new int[levels];
+            int[] errorCount = new int[levels];
+            for (int level = 0; level < levels; level ++) {
+                errorFrom[level] = levelRecords.getInt(level * LEVEL_RECORD_BYTES);
+                errorCount[level] = levelRecords.getInt(level * LEVEL_RECORD_BYTES + 4);
+            }
+            MappedFrozenQuadTree tree = new MappedFrozenQuadTree(errorFrom, errorCount, size, internalSize);
+            tree.errorSize = errorSize;
+            for (int level = 0; level < levels; level ++) {
+                tree.levelFirstRank[level] = levelRecords.getInt(level * LEVEL_RECORD_BYTES + 8);
+                tree.levelErrorBase[level] = levelRecords.getLong(level * LEVEL_RECORD_BYTES + 16);
+            }
+
+            long nodesPosition = levelsPosition + (long) levels * LEVEL_RECORD_BYTES;
+            int nodesPerChunk = recordsPerChunk(NODE_RECORD_BYTES);
+            tree.nodeChunkShift = Integer.numberOfTrailingZeros(nodesPerChunk);
+            tree.nodeChunkMask = nodesPerChunk - 1;
+            tree.nodeChunks = mapSection(channel, nodesPosition, size, NODE_RECORD_BYTES, nodesPerChunk);
+
+            long errorsPosition = nodesPosition + (long) size * NODE_RECORD_BYTES;
+            if (errorsPosition + errorSize * Float.BYTES > channel.size()) {
+                throw new IOException(fileName + " is truncated.");
+            }
+            int errorsPerChunk = recordsPerChunk(Float.BYTES);
+            tree.errorChunkShift = Integer.numberOfTrailingZeros(errorsPerChunk);
+            tree.errorChunkMask = errorsPerChunk - 1;
+            tree.errorChunks = mapSection(channel, errorsPosition, errorSize, Float.BYTES, errorsPerChunk);
+            return tree;
+        }
+    }
+
+    private static int recordsPerChunk(int recordBytes) {
+        return Integer.highestOneBit(Integer.MAX_VALUE / recordBytes);
+    }
+
+    private static ByteBuffer[] mapSection(FileChannel channel, long position, long records, int recordBytes,
+                                           int recordsPerChunk) throws IOException {
+        int numberOfChunks = (int) ((records + recordsPerChunk - 1) / recordsPerChunk);
+        ByteBuffer[] chunks = new ByteBuffer[numberOfChunks];
+        for (int i = 0; i < numberOfChunks; i ++) {
+            long recordsInChunk = Math.min(recordsPerChunk, records - (long) i * recordsPerChunk);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position + (long) i * recordsPerChunk * recordBytes,
+                    recordsInChunk * recordBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return chunks;
+    }
+
+    private int firstChildOf(int node) {
+        return nodeChunks[node >>> nodeChunkShift].getInt((node & nodeChunkMask) * NODE_RECORD_BYTES + FIRST_CHILD_OFFSET);
+    }
+
+    /**
+     * nodes and errors are mapped from the snapshot file, outside of the heap
+     */
+    @Override
+    public long heapBytes() {
+        return levelBytes();
+    }
+
+    @Override
+    public boolean isLeaf(int node) {
+        return firstChildOf(node) < 0;
+    }
+
+    @Override
+    public int child(int node, int quadrant) {
+        return firstChildOf(node) + quadrant;
+    }
+
+    @Override
+    public int count(int node) {
+        return nodeChunks[node >>> nodeChunkShift].getInt((node & nodeChunkMask) * NODE_RECORD_BYTES + COUNT_OFFSET);
+    }
+
+    @Override
+    public boolean hasSample(int node) {
+        return !Double.isNaN(sampleX(node));
+    }
+
+    @Override
+    public double sampleX(int node) {
+        return nodeChunks[node >>> nodeChunkShift].getDouble((node & nodeChunkMask) * NODE_RECORD_BYTES + SAMPLE_X_OFFSET);
+    }
+
+    @Override
+    public double sampleY(int node) {
+        return nodeChunks[node >>> nodeChunkShift].getDouble((node & nodeChunkMask) * NODE_RECORD_BYTES + SAMPLE_Y_OFFSET);
+    }
+
+    @Override
+    public double error(int node, int level, int i) {
+        long position = errorPosition(firstChildOf(node), level, i);
+        if (position < 0) return 0.0;
+        return errorChunks[(int) (position >>> errorChunkShift)].getFloat((int) (position & errorChunkMask) * Float.BYTES);
+    }
+
+    /**
+     * binary snapshot is read-only, errors are computed before writing it,
+     * if a snapshot still has NaN errors, they are computed again on each access instead of being memoized
+     */
+    @Override
+    public void setError(int node, int level, int i, float error) {
+        // nothing to memoize
+    }
+
+    @Override
+    public void trim() {
+        // nothing to trim, the layout is not kept in heap arrays
+    }
+}
@@ -0,0 +1,120 @@
+package util;
+
+import model.Point;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Z-order (Morton) sorted batch of points in the [0 ~ 1] Mercator plane
+ *
+ * Note: key of a point interleaves the bits of its cell index on x and y at a given depth,
+ *       for each level the y bit is the high bit and the x bit is the low bit,
+ *       so the 2 bits of a level are the quadrant of the point: 0 - NW, 1 - NE, 2 - SW, 3 - SE,
+ *       and sorting by key lists points in the same order as a pre-order traversal of a quadtree.
+ *       Points of one node at any level <= depth are a contiguous run of the sorted batch.
+ */
+public class Morton {
+
+    // maximum number of levels (bits per axis) of a key
+    public static final int MAX_DEPTH = 31;
+
+    // key of points outside the [0, 1) x [0, 1) plane, sorted after all valid keys
+    public static final long OUTSIDE = Long.MAX_VALUE;
+
+    public int depth;
+    public int size; // number of points inside the plane, they are sorted at [0, size)
+    public long[] keys;
+    public Point[] points; // points in the order of keys, points with equal keys keep their order in the input
+
+    /**
+     * Sort a batch of points (already projected to Mercator x/y) by Morton key
+     *
+     * @param _points
+     * @param _depth - number of levels of the keys, points in the same cell at this depth keep their input order
+     * @return
+     */
+    public static Morton sort(List<Point> _points, int _depth) {
+        if (_depth < 1 || _depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Morton key depth " + _depth + " is not in [1, " + MAX_DEPTH + "].");
+        }
+        int n = _points.size();
+        Morton morton = new Morton();
+        morton.depth = _depth;
+
+        long[] unsortedKeys = new long[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            Point point = _points.get(i);
+            unsortedKeys[i] = key(point.getX(), point.getY(), _depth);
+        });
+
+        morton.keys = unsortedKeys.clone();
+        Arrays.parallelSort(morton.keys);
+
+        // scatter points to their sorted positions,
+        // points with equal keys are placed in the input order after the first position of their run
+        morton.points = new Point[n];
+        int[] runOffsets = new int[n];
+        for (int i = 0; i < n; i ++) {
+            int start = lowerBound(morton.keys, 0, n, unsortedKeys[i]);
+            morton.points[start + runOffsets[start]] = _points.get(i);
+            runOffsets[start] ++;
+        }
+
+        morton.size = lowerBound(morton.keys, 0, n, OUTSIDE);
+        return morton;
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param depth
+     * @return Morton key of the cell containing [x, y] at given depth, OUTSIDE if not in [0, 1) x [0, 1)
+     */
+    public static long key(double x, double y, int depth) {
+        if (!(x >= 0.0 && x < 1.0 && y >= 0.0 && y < 1.0)) {
+            return OUTSIDE;
+        }
+        // cell boundaries are powers of 2, so the multiplication is exact
+        double cells = 1L << depth;
+        return (spread((long) (y * cells)) << 1) | spread((long) (x * cells));
+    }
+
+    /**
+     * @param level - level of a node, root is level 0
+     * @return number of keys covered by one node at given level
+     */
+    public long cellKeys(int level) {
+        return 1L << (2 * (depth - level));
+    }
+
+    /**
+     * @param keys
+     * @param from - inclusive
+     * @param to - exclusive
+     * @param key
+     * @return first index in [from, to) whose key is >= given key, to if none
+     */
+    public static int lowerBound(long[] keys, int from, int to, long key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    // insert a 0 bit in front of each of the lower 32 bits
+    private static long spread(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+}
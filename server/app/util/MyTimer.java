@@ -2,24 +2,34 @@ package util;
 
 import java.util.*;
 
+/**
+ * Timers of the current thread,
+ * queries and data loading of different agents run concurrently on different threads
+ */
 public class MyTimer {
-    public static Map<String, List<Double>> progressTimer = new HashMap<>();
-    public static Map<String, Double> temporaryTimer = new HashMap<>();
-    private static Stack<Long> startTimes = new Stack<>();
-    private static Queue<Double> durations = new LinkedList<>();
+    private static final ThreadLocal<Map<String, Double>> temporaryTimers = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Stack<Long>> startTimes = ThreadLocal.withInitial(Stack::new);
+    private static final ThreadLocal<Queue<Double>> durations = ThreadLocal.withInitial(LinkedList::new);
+
+    /**
+     * @return timings of parts of the current query, written by algorithms and read by the agent on the same thread
+     */
+    public static Map<String, Double> temporaryTimer() {
+        return temporaryTimers.get();
+    }
 
     public static void startTimer() {
         long startTime = System.nanoTime();
-        startTimes.push(startTime);
+        startTimes.get().push(startTime);
     }
 
     public static void stopTimer() {
         long endTime = System.nanoTime();
-        long startTime = startTimes.pop();
-        durations.add((double) (endTime - startTime) / 1000000000.0);
+        long startTime = startTimes.get().pop();
+        durations.get().add((double) (endTime - startTime) / 1000000000.0);
     }
 
     public static double durationSeconds() {
-        return durations.poll();
+        return durations.get().poll();
     }
 }
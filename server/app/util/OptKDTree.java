@@ -28,6 +28,7 @@ public class OptKDTree<PointType extends I2DPoint> implements I2DIndex<PointType
     private Node root;
     private int height = 0;
     private int size = 0;
+    private int nodeCount = 0;
 
     public OptKDTree() {
         this.root = null;
@@ -39,6 +40,7 @@ public class OptKDTree<PointType extends I2DPoint> implements I2DIndex<PointType
         // empty tree
         if (root == null) {
             root = new Node(point, true, 0);
+            nodeCount ++;
             height = 1;
             return;
         }
@@ -86,6 +88,7 @@ public class OptKDTree<PointType extends I2DPoint> implements I2DIndex<PointType
         }
         // parentNode clusters to the parent of new node
         currentNode = new Node(point, align, parentNode.depth + 1);
+        nodeCount ++;
         if (currentNode.depth + 1 > height) {
             height = currentNode.depth + 1;
         }
@@ -195,6 +198,10 @@ public class OptKDTree<PointType extends I2DPoint> implements I2DIndex<PointType
         return counter;
     }
 
+    public int nodeCount() {
+        return nodeCount;
+    }
+
     public void print() {
         System.out.println("=================== KDTree ===================");
         System.out.println();
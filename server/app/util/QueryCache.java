@@ -0,0 +1,177 @@
+package util;
+
+import com.typesafe.config.Config;
+import model.Query;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of binary query results shared by all agents
+ *
+ *  - a query is cached with its bbox snapped outwards to the tile grid of its zoom level (see keyOf),
+ *    so the same viewport panned back, or viewports of different users over the same tiles, share one entry
+ *  - only a query missing the cache is answered on the snapped bbox (see snapToTiles), so its result can be cached,
+ *    the sample size is not scaled, so fewer samples fall inside the viewport, hence the cache is disabled by default
+ *  - bounded by the total bytes of cached results, the least recently used results are evicted first
+ *  - results of an algorithm are invalidated when a new batch of data is loaded into it
+ */
+@Singleton
+public class QueryCache {
+
+    public static class Key {
+        String algorithmKey;
+        int zoom;
+        int tileX0;
+        int tileY0;
+        int tileX1;
+        int tileY1;
+        int sampleSize;
+        int resX;
+        int resY;
+        int msgType;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return zoom == key.zoom && tileX0 == key.tileX0 && tileY0 == key.tileY0 && tileX1 == key.tileX1
+                    && tileY1 == key.tileY1 && sampleSize == key.sampleSize && resX == key.resX && resY == key.resY
+                    && msgType == key.msgType && algorithmKey.equals(key.algorithmKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(algorithmKey, zoom, tileX0, tileY0, tileX1, tileY1, sampleSize, resX, resY, msgType);
+        }
+    }
+
+    long maxBytes;
+    long bytes;
+    LinkedHashMap<Key, byte[]> results;
+
+    // stats
+    long hits;
+    long misses;
+
+    /**
+     * @param maxBytes - maximum total bytes of cached results, 0 disables the cache
+     */
+    public QueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.bytes = 0;
+        this.results = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Inject
+    public QueryCache(Config config) {
+        this(config.getLong("cache.max_bytes"));
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Snap the bbox of given query outwards to the tile grid of its zoom level
+     *
+     * @param query - not modified
+     * @return key of the snapped query in the cache
+     */
+    public Key keyOf(Query query) {
+        int tiles = 1 << query.zoom;
+        double x0 = Mercator.lngX(query.bbox[0]);
+        double x1 = Mercator.lngX(query.bbox[2]);
+        // latitude -> y is reversed than geo coordinates
+        double y0 = Mercator.latY(query.bbox[3]);
+        double y1 = Mercator.latY(query.bbox[1]);
+
+        Key key = new Key();
+        key.algorithmKey = query.key;
+        key.zoom = query.zoom;
+        key.tileX0 = (int) Math.floor(Math.max(0.0, Math.min(x0, x1)) * tiles);
+        key.tileX1 = (int) Math.ceil(Math.min(1.0, Math.max(x0, x1)) * tiles);
+        key.tileY0 = (int) Math.floor(Math.max(0.0, Math.min(y0, y1)) * tiles);
+        key.tileY1 = (int) Math.ceil(Math.min(1.0, Math.max(y0, y1)) * tiles);
+        key.sampleSize = query.sampleSize;
+        key.resX = query.resX;
+        key.resY = query.resY;
+        key.msgType = Constants.MSG_TYPE;
+        return key;
+    }
+
+    /**
+     * @param query
+     * @param key - key of given query
+     * @return copy of given query with its bbox snapped to the tiles of the key,
+     *         its result covers all queries of the same key
+     */
+    public static Query snapToTiles(Query query, Key key) {
+        int tiles = 1 << key.zoom;
+        Query snapped = new Query();
+        snapped.key = query.key;
+        snapped.zoom = query.zoom;
+        snapped.algorithm = query.algorithm;
+        snapped.resX = query.resX;
+        snapped.resY = query.resY;
+        snapped.aggregator = query.aggregator;
+        snapped.sampleSize = query.sampleSize;
+        snapped.samplePercentage = query.samplePercentage;
+        snapped.bbox = new double[]{
+                Mercator.xLng((double) key.tileX0 / tiles),
+                Mercator.yLat((double) key.tileY1 / tiles),
+                Mercator.xLng((double) key.tileX1 / tiles),
+                Mercator.yLat((double) key.tileY0 / tiles)
+        };
+        return snapped;
+    }
+
+    /**
+     * @param key
+     * @return cached result, null if not cached
+     */
+    public synchronized byte[] get(Key key) {
+        byte[] result = results.get(key);
+        if (result == null) misses ++;
+        else hits ++;
+        return result;
+    }
+
+    public synchronized void put(Key key, byte[] result) {
+        if (result.length > maxBytes) return;
+        byte[] old = results.put(key, result);
+        if (old != null) bytes -= old.length;
+        bytes += result.length;
+        // evict least recently used results
+        Iterator<Map.Entry<Key, byte[]>> iterator = results.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * remove all cached results of given algorithm
+     *
+     * @param algorithmKey
+     */
+    public synchronized void invalidate(String algorithmKey) {
+        Iterator<Map.Entry<Key, byte[]>> iterator = results.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, byte[]> entry = iterator.next();
+            if (entry.getKey().algorithmKey.equals(algorithmKey)) {
+                bytes -= entry.getValue().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized String stats() {
+        return "results = " + results.size() + ", bytes = " + bytes + ", hits = " + hits + ", misses = " + misses;
+    }
+}
@@ -0,0 +1,98 @@
+package util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of query results of web map tiles of one algorithm instance
+ *
+ *  - a tile result is the longitude/latitude pairs of the samples of the tile for a given sample size
+ *  - bounded by the total bytes of cached results, the least recently used results are evicted first
+ */
+public class TileCache {
+
+    // maximum zoom level of tiles that can be keyed
+    public static final int MAX_ZOOM = 20;
+
+    // bytes of a cached entry besides its samples
+    static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    long maxBytes;
+    long bytes;
+    LinkedHashMap<Long, double[]> results;
+
+    /**
+     * @param maxBytes - maximum total bytes of cached results, 0 disables the cache
+     */
+    public TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.bytes = 0;
+        this.results = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @param zoom - <= MAX_ZOOM
+     * @param tileX
+     * @param tileY
+     * @param sampleSizeStep - see sampleSizeStep()
+     * @return
+     */
+    public static long key(int zoom, int tileX, int tileY, int sampleSizeStep) {
+        return ((long) sampleSizeStep << 48) | ((long) zoom << 40) | ((long) tileX << 20) | tileY;
+    }
+
+    /**
+     * Sample sizes are quantized down to steps of quarter powers of 2 (at most ~16% less),
+     * so that a tile shared by similar queries is searched with the same sample size,
+     * and the sample sizes of tiles never add up to more than the sample size of the query
+     *
+     * @param sampleSize - > 0
+     * @return the largest step whose sample size is <= sampleSize
+     */
+    public static int sampleSizeStep(int sampleSize) {
+        return (int) Math.floor(4 * Math.log(sampleSize) / Math.log(2) + 1e-9);
+    }
+
+    /**
+     * @param sampleSizeStep
+     * @return sample size of given step
+     */
+    public static int sampleSize(int sampleSizeStep) {
+        return (int) Math.max(1, Math.round(Math.pow(2, sampleSizeStep / 4.0)));
+    }
+
+    public synchronized double[] get(long key) {
+        return results.get(key);
+    }
+
+    public synchronized void put(long key, double[] samples) {
+        long entryBytes = entryBytes(samples);
+        if (entryBytes > maxBytes) return;
+        double[] old = results.put(key, samples);
+        if (old != null) bytes -= entryBytes(old);
+        bytes += entryBytes;
+        // evict least recently used results
+        Iterator<Map.Entry<Long, double[]>> iterator = results.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= entryBytes(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return total bytes of cached results
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        results.clear();
+        bytes = 0;
+    }
+
+    private static long entryBytes(double[] samples) {
+        return (long) samples.length * Double.BYTES + ENTRY_OVERHEAD_BYTES;
+    }
+}
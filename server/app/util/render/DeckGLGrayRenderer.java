@@ -0,0 +1,112 @@
+package util.render;
+
+import util.UnsignedByte;
+
+import java.util.Arrays;
+
+/**
+ * Deck.GL rendering with a single gray channel
+ *
+ *  - error metrics only compare gray values of pixels, and with fixed COLOR and BG_COLOR,
+ *    blending a point onto a pixel only depends on alpha, so the gray value is blended directly
+ *  - a rendering is 1/3 of the size of a DeckGLRenderer rendering, use with GrayL1Error / GrayL2Error
+ *
+ * Note: gray values are truncated once per blend instead of once per channel,
+ *       so errors may differ slightly from DeckGLRenderer with L1Error / L2Error.
+ */
+public class DeckGLGrayRenderer extends DeckGLRenderer {
+
+    public static final int GRAY_COLOR = GrayScale.gray(COLOR[0], COLOR[1], COLOR[2]);
+    public static final byte GRAY_BG_COLOR = UnsignedByte.toByte(GrayScale.gray(BG_COLOR[0], BG_COLOR[1], BG_COLOR[2]));
+
+    public DeckGLGrayRenderer(int radiusInPixels) {
+        super(radiusInPixels);
+    }
+
+    public DeckGLGrayRenderer(int radiusInPixels, int stencilSteps) {
+        super(radiusInPixels, stencilSteps);
+    }
+
+    /**
+     * Create a rendering with background gray
+     *
+     *  - Use 1-D array to simulate a 2-D array
+     *    suppose 2-D array has dimension lengths: side * side
+     *    [i][j] = i * side + j
+     *
+     * @param _resolution
+     * @return
+     */
+    @Override
+    public byte[] createRendering(int _resolution) {
+        int side = realResolution(_resolution);
+        byte[] rendering = new byte[side * side];
+        clearRendering(rendering, _resolution);
+        return rendering;
+    }
+
+    @Override
+    public void clearRendering(byte[] rendering, int _resolution) {
+        int side = realResolution(_resolution);
+        Arrays.fill(rendering, 0, side * side, GRAY_BG_COLOR);
+    }
+
+    /**
+     * blend the point gray with alpha onto pixel [i, j]
+     *
+     * @param rendering - Use 1-D array to simulate a 2-D array
+     *                    suppose 2-D array has dimension lengths: side * side
+     *                    [i][j] = i * side + j
+     */
+    @Override
+    boolean blend(byte[] rendering, int side, int i, int j, double alpha) {
+        int og = UnsignedByte.toInt(rendering[i * side + j]);
+        // apply blend function DST_GRAY = SRC_GRAY * SRC_ALPHA + DST_GRAY * (1 - SRC_ALPHA)
+        int g = (int) (GRAY_COLOR * alpha + og * (1.0 - alpha));
+        if (og != g) {
+            rendering[i * side + j] = UnsignedByte.toByte(g);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * blend the point gray with alpha onto pixel [i, j] of a sparse rendering,
+     * pixels are [i, j, gray, gray, gray]
+     */
+    @Override
+    boolean blend(SparseRendering rendering, int i, int j, double alpha) {
+        // get the original pixel gray in rendering
+        int pixel = rendering.find(i, j);
+        int og = pixel >= 0? UnsignedByte.toInt(rendering.r(pixel)): UnsignedByte.toInt(GRAY_BG_COLOR);
+        // apply blend function DST_GRAY = SRC_GRAY * SRC_ALPHA + DST_GRAY * (1 - SRC_ALPHA)
+        int g = (int) (GRAY_COLOR * alpha + og * (1.0 - alpha));
+        byte gray = UnsignedByte.toByte(g);
+        // existing pixel, apply the new gray
+        if (pixel >= 0) {
+            if (og != g) {
+                rendering.set(pixel, gray, gray, gray);
+                return true;
+            }
+            return false;
+        }
+        // otherwise, create a new pixel and add to the rendering
+        rendering.add(i, j, gray, gray, gray);
+        return true;
+    }
+
+    @Override
+    int gray(byte[] rendering, int side, int i, int j) {
+        return UnsignedByte.toInt(rendering[i * side + j]);
+    }
+
+    @Override
+    int backgroundGray() {
+        return UnsignedByte.toInt(GRAY_BG_COLOR);
+    }
+
+    @Override
+    int discGray(double alpha) {
+        return (int) (GRAY_COLOR * alpha + UnsignedByte.toInt(GRAY_BG_COLOR) * (1.0 - alpha));
+    }
+}
@@ -1,22 +1,37 @@
 package util.render;
 
-import javafx.util.Pair;
 import model.Point;
 import util.UnsignedByte;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 public class DeckGLRenderer implements IRenderer {
 
     public static double SMOOTH_EDGE_RADIUS = 0.5;
 
     int radiusInPixels;
+    int diameter;
+
+    // sub-pixel offsets of a point are quantized into stencilSteps * stencilSteps stencils,
+    // 0 - alphas are computed exactly for every pixel
+    int stencilSteps;
+    // [x offset step * stencilSteps + y offset step] -> alphas of the diameter * diameter pixels around a point
+    double[][] stencils;
 
     public DeckGLRenderer(int radiusInPixels) {
+        this(radiusInPixels, 0);
+    }
+
+    /**
+     * @param radiusInPixels
+     * @param stencilSteps - number of quantized sub-pixel offsets in each dimension, 0 - no stencils
+     */
+    public DeckGLRenderer(int radiusInPixels, int stencilSteps) {
         this.radiusInPixels = radiusInPixels;
-        System.out.println("[DeckGLAggregator] initializing with { radiusInPixels: " + radiusInPixels + "}.");
+        this.diameter = 2 * radiusInPixels + 1;
+        this.stencilSteps = stencilSteps;
+        if (stencilSteps > 0) {
+            buildStencils();
+        }
+        System.out.println("[DeckGLAggregator] initializing with { radiusInPixels: " + radiusInPixels + ", stencilSteps: " + stencilSteps + "}.");
     }
 
     /**
@@ -33,17 +48,31 @@ public class DeckGLRenderer implements IRenderer {
     public byte[] createRendering(int _resolution) {
         int side = _resolution + 2 * (radiusInPixels + 1);
         byte[] rendering = new byte[side * side * 3];
-        // init rendering with BG_COLOR
-        for (int i = 0; i < side; i++) {
-            for (int j = 0; j < side; j++) {
-                rendering[i * side * 3 + j * 3 + 0] = BG_COLOR[0]; // R
-                rendering[i * side * 3 + j * 3 + 1] = BG_COLOR[1]; // G
-                rendering[i * side * 3 + j * 3 + 2] = BG_COLOR[2]; // B
-            }
-        }
+        clearRendering(rendering, _resolution);
         return rendering;
     }
 
+    /**
+     * Reset a rendering to background color
+     *
+     *  - the first pixel is set to BG_COLOR, then the filled prefix is copied onto the rest,
+     *    doubling in length each time, so it runs as a few bulk copies
+     *
+     * @param rendering
+     * @param _resolution
+     */
+    @Override
+    public void clearRendering(byte[] rendering, int _resolution) {
+        int side = _resolution + 2 * (radiusInPixels + 1);
+        int length = side * side * 3;
+        rendering[0] = BG_COLOR[0]; // R
+        rendering[1] = BG_COLOR[1]; // G
+        rendering[2] = BG_COLOR[2]; // B
+        for (int filled = 3; filled < length; filled += filled) {
+            System.arraycopy(rendering, 0, rendering, filled, Math.min(filled, length - filled));
+        }
+    }
+
     /**
      * Render a new point onto the given rendering
      *
@@ -59,58 +88,31 @@ public class DeckGLRenderer implements IRenderer {
      */
     @Override
     public boolean render(byte[] rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point) {
-        int side = _resolution + 2 * (radiusInPixels + 1);
+        int side = realResolution(_resolution);
         boolean isDifferent = false;
         double pixelLength = 2 * _halfDimension / (double)_resolution;
-        double px, py;
-        double distanceToCenter;
-        double inCircle;
-        double alpha;
-        int or, og, ob;
-        int r, g, b;
-        // render the point on the background as a new rendering
         // boundary of the rendering
         double left = _cX - _halfDimension - (radiusInPixels + 1) * pixelLength; // may be overflow to negative
         double top = _cY - _halfDimension - (radiusInPixels + 1) * pixelLength; // may be overflow to negative
-        // (1) find the circumscribed square of the point
-        double csLeft = point.getX() - radiusInPixels * pixelLength;
-        double csRight = point.getX() + radiusInPixels * pixelLength;
-        double csTop = point.getY() - radiusInPixels * pixelLength;
-        double csBottom = point.getY() + radiusInPixels * pixelLength;
-        // (2) pixel indexes of the circumscribed square
-        int csLeftPixel = (int)((csLeft - left) / pixelLength);
-        int csRightPixel = (int)((csRight - left) / pixelLength);
-        int csTopPixel = (int)((csTop - top) / pixelLength);
-        int csBottomPixel = (int)((csBottom - top) / pixelLength);
-        // (3) traverse the pixels within the circumscribed square
-        for (int i = csLeftPixel; i <= csRightPixel; i ++) {
-            for (int j = csTopPixel; j <= csBottomPixel; j ++) {
-                px = left + (i + 0.5) * pixelLength;
-                py = top + (j + 0.5) * pixelLength;
-                // current pixel to center point's distance in units of # of pixels
-                distanceToCenter = (Math.sqrt(Math.pow(px - point.getX(), 2) + Math.pow(py - point.getY(), 2))) / pixelLength;
-                // how dense this pixel color
-                inCircle = smoothEdge(distanceToCenter, radiusInPixels);
-                alpha = 1.0 * inCircle;
-                or = UnsignedByte.toInt(rendering[i * side * 3 + j * 3 + 0]);
-                og = UnsignedByte.toInt(rendering[i * side * 3 + j * 3 + 1]);
-                ob = UnsignedByte.toInt(rendering[i * side * 3 + j * 3 + 2]);
-                // apply blend function DST_COLOR = SRC_COLOR * SRC_ALPHA + DST_COLOR * (1 - SRC_ALPHA)
-                r = (int) (UnsignedByte.toInt(COLOR[0]) * alpha + or * (1.0 - alpha)); // R
-                g = (int) (UnsignedByte.toInt(COLOR[1]) * alpha + og * (1.0 - alpha)); // G
-                b = (int) (UnsignedByte.toInt(COLOR[2]) * alpha + ob * (1.0 - alpha)); // B
-                if (or != r) {
-                    isDifferent = true;
-                    rendering[i * side * 3 + j * 3 + 0] = UnsignedByte.toByte(r);
+        // pixel indexes of the circumscribed square of the point
+        int iFrom = footprintFrom(point.getX(), left, pixelLength);
+        int iTo = footprintTo(point.getX(), left, pixelLength);
+        int jFrom = footprintFrom(point.getY(), top, pixelLength);
+        int jTo = footprintTo(point.getY(), top, pixelLength);
+        double[] stencil = stencils == null? null: stencil(point, left, top, pixelLength);
+        // traverse the pixels within the circumscribed square
+        for (int i = iFrom; i <= iTo; i ++) {
+            for (int j = jFrom; j <= jTo; j ++) {
+                double alpha;
+                if (stencil != null) {
+                    alpha = stencil[(i - iFrom) * diameter + (j - jFrom)];
+                    // transparent pixel of the stencil never changes the rendering
+                    if (alpha == 0.0) continue;
                 }
-                if (og != g) {
-                    isDifferent = true;
-                    rendering[i * side * 3 + j * 3 + 1] = UnsignedByte.toByte(g);
-                }
-                if (ob != b) {
-                    isDifferent = true;
-                    rendering[i * side * 3 + j * 3 + 2] = UnsignedByte.toByte(b);
+                else {
+                    alpha = alpha(point, left, top, pixelLength, i, j);
                 }
+                if (blend(rendering, side, i, j, alpha)) isDifferent = true;
             }
         }
 
@@ -118,9 +120,9 @@ public class DeckGLRenderer implements IRenderer {
     }
 
     /**
-     * Render a new point onto the given rendering
+     * Render a new point onto the given sparse rendering
      *
-     * @param rendering - a list of pixels [i, j, r, g, b]
+     * @param rendering - pixels [i, j, r, g, b] different from the background
      * @param _cX
      * @param _cY
      * @param _halfDimension
@@ -129,89 +131,251 @@ public class DeckGLRenderer implements IRenderer {
      * @return boolean - if render the point on given rendering does not change the result, return false; else return true;
      */
     @Override
-    public boolean render(List<Pixel> rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point) {
-
-        // build hash map for rendering pixels
-        Map<Pair<Integer, Integer>, Pixel> renderingMap = new HashMap<>();
-        for (Pixel pixel: rendering) {
-            renderingMap.put(new Pair<>(pixel.i, pixel.j), pixel);
-        }
-
+    public boolean render(SparseRendering rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point) {
         boolean isDifferent = false;
         double pixelLength = 2 * _halfDimension / (double)_resolution;
-        double px, py;
-        double distanceToCenter;
-        double inCircle;
-        double alpha;
-        int or, og, ob;
-        int r, g, b;
-        // render the point on the background as a new rendering
         // boundary of the rendering
         double left = _cX - _halfDimension - (radiusInPixels + 1) * pixelLength; // may be overflow to negative
         double top = _cY - _halfDimension - (radiusInPixels + 1) * pixelLength; // may be overflow to negative
-        // (1) find the circumscribed square of the point
-        double csLeft = point.getX() - radiusInPixels * pixelLength;
-        double csRight = point.getX() + radiusInPixels * pixelLength;
-        double csTop = point.getY() - radiusInPixels * pixelLength;
-        double csBottom = point.getY() + radiusInPixels * pixelLength;
-        // (2) pixel indexes of the circumscribed square
-        int csLeftPixel = (int)((csLeft - left) / pixelLength);
-        int csRightPixel = (int)((csRight - left) / pixelLength);
-        int csTopPixel = (int)((csTop - top) / pixelLength);
-        int csBottomPixel = (int)((csBottom - top) / pixelLength);
-        // (3) traverse the pixels within the circumscribed square
-        for (int i = csLeftPixel; i <= csRightPixel; i ++) {
-            for (int j = csTopPixel; j <= csBottomPixel; j ++) {
-                px = left + (i + 0.5) * pixelLength;
-                py = top + (j + 0.5) * pixelLength;
-                // current pixel to center point's distance in units of # of pixels
-                distanceToCenter = (Math.sqrt(Math.pow(px - point.getX(), 2) + Math.pow(py - point.getY(), 2))) / pixelLength;
-                // how dense this pixel color
-                inCircle = smoothEdge(distanceToCenter, radiusInPixels);
-                alpha = 1.0 * inCircle;
-                // get the original pixel color in rendering
-                Pair<Integer, Integer> pixelIndex = new Pair<>(i, j);
-                boolean existingPixel = false;
-                if (renderingMap.containsKey(pixelIndex)) existingPixel = true;
-                or = existingPixel? UnsignedByte.toInt(renderingMap.get(pixelIndex).r) : UnsignedByte.toInt(BG_COLOR[0]);
-                og = existingPixel? UnsignedByte.toInt(renderingMap.get(pixelIndex).g) : UnsignedByte.toInt(BG_COLOR[1]);
-                ob = existingPixel? UnsignedByte.toInt(renderingMap.get(pixelIndex).b) : UnsignedByte.toInt(BG_COLOR[2]);
-                // apply blend function DST_COLOR = SRC_COLOR * SRC_ALPHA + DST_COLOR * (1 - SRC_ALPHA)
-                r = (int) (UnsignedByte.toInt(COLOR[0]) * alpha + or * (1.0 - alpha)); // R
-                g = (int) (UnsignedByte.toInt(COLOR[1]) * alpha + og * (1.0 - alpha)); // G
-                b = (int) (UnsignedByte.toInt(COLOR[2]) * alpha + ob * (1.0 - alpha)); // B
-                // existing pixel, apply the new color
-                if (existingPixel) {
-                    if (or != r) {
-                        isDifferent = true;
-                        renderingMap.get(pixelIndex).r = UnsignedByte.toByte(r);
-                    }
-                    if (og != g) {
-                        isDifferent = true;
-                        renderingMap.get(pixelIndex).g = UnsignedByte.toByte(g);
-                    }
-                    if (ob != b) {
-                        isDifferent = true;
-                        renderingMap.get(pixelIndex).b = UnsignedByte.toByte(b);
-                    }
+        // pixel indexes of the circumscribed square of the point
+        int iFrom = footprintFrom(point.getX(), left, pixelLength);
+        int iTo = footprintTo(point.getX(), left, pixelLength);
+        int jFrom = footprintFrom(point.getY(), top, pixelLength);
+        int jTo = footprintTo(point.getY(), top, pixelLength);
+        double[] stencil = stencils == null? null: stencil(point, left, top, pixelLength);
+        // traverse the pixels within the circumscribed square
+        for (int i = iFrom; i <= iTo; i ++) {
+            for (int j = jFrom; j <= jTo; j ++) {
+                double alpha;
+                if (stencil != null) {
+                    alpha = stencil[(i - iFrom) * diameter + (j - jFrom)];
+                    // transparent pixel of the stencil never changes the rendering
+                    if (alpha == 0.0) continue;
                 }
-                // otherwise, create a new pixel and add to the rendering
                 else {
-                    isDifferent = true;
-                    rendering.add(new Pixel(i, j, UnsignedByte.toByte(r), UnsignedByte.toByte(g), UnsignedByte.toByte(b)));
+                    alpha = alpha(point, left, top, pixelLength, i, j);
                 }
+                if (blend(rendering, i, j, alpha)) isDifferent = true;
             }
         }
 
         return isDifferent;
     }
 
+    /**
+     * Errors between the ground truth and each point rendered alone in one pass,
+     * pixels outside the footprints of all points are background in both renderings,
+     * so only the footprints are visited and the candidate renderings are never materialized
+     *
+     *  - base = error of the background against the ground truth over the bounding box of all footprints
+     *  - error of a point = base, corrected on the footprint of the point by its own disc on the background
+     */
+    @Override
+    public boolean candidateErrors(byte[] rendering, double _cX, double _cY, double _halfDimension, int _resolution,
+                                   Point[] _points, int _count, IErrorMetric _errorMetric, double[] _errors) {
+        int power = _errorMetric.grayDifferencePower();
+        if (power == 0) return false;
+
+        // render all points as the ground truth
+        for (int k = 0; k < _count; k ++) {
+            render(rendering, _cX, _cY, _halfDimension, _resolution, _points[k]);
+        }
+
+        int side = realResolution(_resolution);
+        double pixelLength = 2 * _halfDimension / (double)_resolution;
+        double left = _cX - _halfDimension - (radiusInPixels + 1) * pixelLength; // may be overflow to negative
+        double top = _cY - _halfDimension - (radiusInPixels + 1) * pixelLength; // may be overflow to negative
+        int background = backgroundGray();
+
+        // bounding box of all footprints
+        int iMin = Integer.MAX_VALUE, iMax = Integer.MIN_VALUE, jMin = Integer.MAX_VALUE, jMax = Integer.MIN_VALUE;
+        for (int k = 0; k < _count; k ++) {
+            iMin = Math.min(iMin, footprintFrom(_points[k].getX(), left, pixelLength));
+            iMax = Math.max(iMax, footprintTo(_points[k].getX(), left, pixelLength));
+            jMin = Math.min(jMin, footprintFrom(_points[k].getY(), top, pixelLength));
+            jMax = Math.max(jMax, footprintTo(_points[k].getY(), top, pixelLength));
+        }
+        long base = 0;
+        for (int i = iMin; i <= iMax; i ++) {
+            for (int j = jMin; j <= jMax; j ++) {
+                base += pixelError(gray(rendering, side, i, j) - background, power);
+            }
+        }
+
+        for (int k = 0; k < _count; k ++) {
+            Point point = _points[k];
+            int iFrom = footprintFrom(point.getX(), left, pixelLength);
+            int iTo = footprintTo(point.getX(), left, pixelLength);
+            int jFrom = footprintFrom(point.getY(), top, pixelLength);
+            int jTo = footprintTo(point.getY(), top, pixelLength);
+            double[] stencil = stencils == null? null: stencil(point, left, top, pixelLength);
+            long error = base;
+            for (int i = iFrom; i <= iTo; i ++) {
+                for (int j = jFrom; j <= jTo; j ++) {
+                    double alpha = stencil != null? stencil[(i - iFrom) * diameter + (j - jFrom)]: alpha(point, left, top, pixelLength, i, j);
+                    if (alpha == 0.0) continue;
+                    int gray = gray(rendering, side, i, j);
+                    error += pixelError(gray - discGray(alpha), power) - pixelError(gray - background, power);
+                }
+            }
+            _errors[k] = error;
+        }
+        return true;
+    }
+
     @Override
     public int realResolution(int _resolution) {
         return _resolution + 2 * (radiusInPixels + 1);
     }
 
-    private double smoothEdge(double edge, double x) {
+    /**
+     * blend the point color with alpha onto pixel [i, j]
+     *
+     * @return true if the pixel is changed
+     */
+    boolean blend(byte[] rendering, int side, int i, int j, double alpha) {
+        boolean isDifferent = false;
+        int or = UnsignedByte.toInt(rendering[i * side * 3 + j * 3 + 0]);
+        int og = UnsignedByte.toInt(rendering[i * side * 3 + j * 3 + 1]);
+        int ob = UnsignedByte.toInt(rendering[i * side * 3 + j * 3 + 2]);
+        // apply blend function DST_COLOR = SRC_COLOR * SRC_ALPHA + DST_COLOR * (1 - SRC_ALPHA)
+        int r = (int) (UnsignedByte.toInt(COLOR[0]) * alpha + or * (1.0 - alpha)); // R
+        int g = (int) (UnsignedByte.toInt(COLOR[1]) * alpha + og * (1.0 - alpha)); // G
+        int b = (int) (UnsignedByte.toInt(COLOR[2]) * alpha + ob * (1.0 - alpha)); // B
+        if (or != r) {
+            isDifferent = true;
+            rendering[i * side * 3 + j * 3 + 0] = UnsignedByte.toByte(r);
+        }
+        if (og != g) {
+            isDifferent = true;
+            rendering[i * side * 3 + j * 3 + 1] = UnsignedByte.toByte(g);
+        }
+        if (ob != b) {
+            isDifferent = true;
+            rendering[i * side * 3 + j * 3 + 2] = UnsignedByte.toByte(b);
+        }
+        return isDifferent;
+    }
+
+    /**
+     * blend the point color with alpha onto pixel [i, j] of a sparse rendering
+     *
+     * @return true if the pixel is changed
+     */
+    boolean blend(SparseRendering rendering, int i, int j, double alpha) {
+        // get the original pixel color in rendering
+        int pixel = rendering.find(i, j);
+        int or = pixel >= 0? UnsignedByte.toInt(rendering.r(pixel)) : UnsignedByte.toInt(BG_COLOR[0]);
+        int og = pixel >= 0? UnsignedByte.toInt(rendering.g(pixel)) : UnsignedByte.toInt(BG_COLOR[1]);
+        int ob = pixel >= 0? UnsignedByte.toInt(rendering.b(pixel)) : UnsignedByte.toInt(BG_COLOR[2]);
+        // apply blend function DST_COLOR = SRC_COLOR * SRC_ALPHA + DST_COLOR * (1 - SRC_ALPHA)
+        int r = (int) (UnsignedByte.toInt(COLOR[0]) * alpha + or * (1.0 - alpha)); // R
+        int g = (int) (UnsignedByte.toInt(COLOR[1]) * alpha + og * (1.0 - alpha)); // G
+        int b = (int) (UnsignedByte.toInt(COLOR[2]) * alpha + ob * (1.0 - alpha)); // B
+        // existing pixel, apply the new color
+        if (pixel >= 0) {
+            if (or != r || og != g || ob != b) {
+                rendering.set(pixel, UnsignedByte.toByte(r), UnsignedByte.toByte(g), UnsignedByte.toByte(b));
+                return true;
+            }
+            return false;
+        }
+        // otherwise, create a new pixel and add to the rendering
+        rendering.add(i, j, UnsignedByte.toByte(r), UnsignedByte.toByte(g), UnsignedByte.toByte(b));
+        return true;
+    }
+
+    /**
+     * @return gray of pixel [i, j]
+     */
+    int gray(byte[] rendering, int side, int i, int j) {
+        return GrayScale.gray(rendering[i * side * 3 + j * 3 + 0], rendering[i * side * 3 + j * 3 + 1], rendering[i * side * 3 + j * 3 + 2]);
+    }
+
+    int backgroundGray() {
+        return GrayScale.gray(BG_COLOR[0], BG_COLOR[1], BG_COLOR[2]);
+    }
+
+    /**
+     * @return gray of a background pixel with the point color blended with alpha
+     */
+    int discGray(double alpha) {
+        int r = (int) (UnsignedByte.toInt(COLOR[0]) * alpha + UnsignedByte.toInt(BG_COLOR[0]) * (1.0 - alpha)); // R
+        int g = (int) (UnsignedByte.toInt(COLOR[1]) * alpha + UnsignedByte.toInt(BG_COLOR[1]) * (1.0 - alpha)); // G
+        int b = (int) (UnsignedByte.toInt(COLOR[2]) * alpha + UnsignedByte.toInt(BG_COLOR[2]) * (1.0 - alpha)); // B
+        return GrayScale.gray(UnsignedByte.toByte(r), UnsignedByte.toByte(g), UnsignedByte.toByte(b));
+    }
+
+    static long pixelError(int _difference, int _power) {
+        return _power == 2? _difference * _difference: Math.abs(_difference);
+    }
+
+    /**
+     * The anti-aliased disc of a point only depends on radiusInPixels and the offset of the point within its pixel,
+     * precompute the alphas of the pixels around a point for the center of each quantized offset
+     *
+     *  - a point at (u, v) in units of pixels covers pixels [(int) u - radiusInPixels, (int) u + radiusInPixels] x
+     *                                                       [(int) v - radiusInPixels, (int) v + radiusInPixels]
+     */
+    private void buildStencils() {
+        stencils = new double[stencilSteps * stencilSteps][];
+        for (int sx = 0; sx < stencilSteps; sx ++) {
+            for (int sy = 0; sy < stencilSteps; sy ++) {
+                double offsetX = (sx + 0.5) / stencilSteps;
+                double offsetY = (sy + 0.5) / stencilSteps;
+                double[] stencil = new double[diameter * diameter];
+                for (int a = 0; a < diameter; a ++) {
+                    for (int b = 0; b < diameter; b ++) {
+                        double dx = a - radiusInPixels + 0.5 - offsetX;
+                        double dy = b - radiusInPixels + 0.5 - offsetY;
+                        stencil[a * diameter + b] = smoothEdge(Math.sqrt(dx * dx + dy * dy), radiusInPixels);
+                    }
+                }
+                stencils[sx * stencilSteps + sy] = stencil;
+            }
+        }
+    }
+
+    /**
+     * @return stencil of the quantized offset of point within its pixel
+     */
+    private double[] stencil(Point point, double _left, double _top, double _pixelLength) {
+        double u = (point.getX() - _left) / _pixelLength;
+        double v = (point.getY() - _top) / _pixelLength;
+        int sx = Math.min(stencilSteps - 1, (int) ((u - (int) u) * stencilSteps));
+        int sy = Math.min(stencilSteps - 1, (int) ((v - (int) v) * stencilSteps));
+        return stencils[sx * stencilSteps + sy];
+    }
+
+    /**
+     * @return first pixel index covered by a point at _coordinate
+     */
+    private int footprintFrom(double _coordinate, double _origin, double _pixelLength) {
+        if (stencils != null) return (int) ((_coordinate - _origin) / _pixelLength) - radiusInPixels;
+        return (int) ((_coordinate - radiusInPixels * _pixelLength - _origin) / _pixelLength);
+    }
+
+    /**
+     * @return last pixel index covered by a point at _coordinate
+     */
+    private int footprintTo(double _coordinate, double _origin, double _pixelLength) {
+        if (stencils != null) return (int) ((_coordinate - _origin) / _pixelLength) + radiusInPixels;
+        return (int) ((_coordinate + radiusInPixels * _pixelLength - _origin) / _pixelLength);
+    }
+
+    /**
+     * @return alpha of pixel [i, j] covered by point, computed exactly
+     */
+    private double alpha(Point point, double _left, double _top, double _pixelLength, int i, int j) {
+        double px = _left + (i + 0.5) * _pixelLength;
+        double py = _top + (j + 0.5) * _pixelLength;
+        // current pixel to center point's distance in units of # of pixels
+        double distanceToCenter = (Math.sqrt(Math.pow(px - point.getX(), 2) + Math.pow(py - point.getY(), 2))) / _pixelLength;
+        // how dense this pixel color
+        return smoothEdge(distanceToCenter, radiusInPixels);
+    }
+
+    double smoothEdge(double edge, double x) {
         return smoothStep(edge - SMOOTH_EDGE_RADIUS, edge + SMOOTH_EDGE_RADIUS, x);
     }
 
@@ -0,0 +1,46 @@
+package util.render;
+
+/**
+ * L2 error between single channel gray renderings of DeckGLGrayRenderer
+ */
+public class GrayL2Error implements IErrorMetric {
+
+    /**
+     * Compute L2 error between two gray renderings
+     *
+     * a rendering
+     * - Use 1-D array to simulate a 2-D array
+     *   suppose 2-D array has dimension lengths: side * side
+     *   [i][j] = i * side + j
+     *
+     * @param _rendering1
+     * @param _rendering2
+     * @param _resolution
+     * @return
+     */
+    @Override
+    public double error(byte[] _rendering1, byte[] _rendering2, int _resolution) {
+        return GrayScale.grayError(_rendering1, _rendering2, _resolution, true);
+    }
+
+    /**
+     * Compute L2 error between two gray renderings
+     *
+     * a rendering
+     * - sparse pixels [i, j, gray], the rest are background
+     *
+     * @param _rendering1
+     * @param _rendering2
+     * @param _resolution
+     * @return
+     */
+    @Override
+    public double error(SparseRendering _rendering1, SparseRendering _rendering2, int _resolution) {
+        return GrayScale.grayError(_rendering1, _rendering2, true);
+    }
+
+    @Override
+    public int grayDifferencePower() {
+        return 2;
+    }
+}
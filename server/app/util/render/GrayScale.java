@@ -0,0 +1,146 @@
+package util.render;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Gray scaling of RGB renderings shared by L1Error and L2Error
+ *
+ *  - gray scaling formula = (0.3 * R) + (0.59 * G) + (0.11 * B),
+ *    the three products are looked up from tables and added in the same order, so grays are bit-identical
+ *  - 8 pixels are 24 bytes, i.e. 3 longs, blocks of 8 pixels identical in both renderings
+ *    (e.g. background, most of a rendering) are skipped by comparing 3 longs
+ *  - single channel gray renderings (see DeckGLGrayRenderer) skip blocks of 8 pixels by comparing 1 long
+ *  - sparse renderings are compared pixel by pixel, pixels missing in one of them are background
+ */
+final class GrayScale {
+
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final double[] R = new double[256];
+    private static final double[] G = new double[256];
+    private static final double[] B = new double[256];
+    static {
+        for (int v = 0; v < 256; v ++) {
+            R[v] = 0.3 * v;
+            G[v] = 0.59 * v;
+            B[v] = 0.11 * v;
+        }
+    }
+
+    private GrayScale() {
+    }
+
+    static int gray(byte _r, byte _g, byte _b) {
+        return (int) (R[_r & 0xFF] + G[_g & 0xFF] + B[_b & 0xFF]);
+    }
+
+    /**
+     * @param _rendering1
+     * @param _rendering2
+     * @param _resolution - real resolution, renderings have side * side * 3 bytes
+     * @param _squared - true: sum of squared gray differences (L2), false: sum of absolute gray differences (L1)
+     * @return
+     */
+    static long error(byte[] _rendering1, byte[] _rendering2, int _resolution, boolean _squared) {
+        int length = _resolution * _resolution * 3;
+        int blocksEnd = length - length % 24;
+        long error = 0;
+        int offset = 0;
+        while (offset < length) {
+            // skip a block of 8 identical pixels
+            if (offset < blocksEnd
+                    && (long) WORDS.get(_rendering1, offset) == (long) WORDS.get(_rendering2, offset)
+                    && (long) WORDS.get(_rendering1, offset + 8) == (long) WORDS.get(_rendering2, offset + 8)
+                    && (long) WORDS.get(_rendering1, offset + 16) == (long) WORDS.get(_rendering2, offset + 16)) {
+                offset += 24;
+                continue;
+            }
+            int end = Math.min(offset + 24, length);
+            for (; offset < end; offset += 3) {
+                byte r1 = _rendering1[offset], g1 = _rendering1[offset + 1], b1 = _rendering1[offset + 2];
+                byte r2 = _rendering2[offset], g2 = _rendering2[offset + 1], b2 = _rendering2[offset + 2];
+                if (r1 == r2 && g1 == g2 && b1 == b2) continue;
+                int diff = gray(r1, g1, b1) - gray(r2, g2, b2);
+                error += _squared? diff * diff: Math.abs(diff);
+            }
+        }
+        return error;
+    }
+
+    /**
+     * @param _rendering1 - single channel gray rendering
+     * @param _rendering2 - single channel gray rendering
+     * @param _resolution - real resolution, renderings have side * side bytes
+     * @param _squared - true: sum of squared gray differences (L2), false: sum of absolute gray differences (L1)
+     * @return
+     */
+    static long grayError(byte[] _rendering1, byte[] _rendering2, int _resolution, boolean _squared) {
+        int length = _resolution * _resolution;
+        int blocksEnd = length - length % 8;
+        long error = 0;
+        int offset = 0;
+        for (; offset < blocksEnd; offset += 8) {
+            // skip a block of 8 identical pixels
+            if ((long) WORDS.get(_rendering1, offset) == (long) WORDS.get(_rendering2, offset)) continue;
+            for (int k = offset; k < offset + 8; k ++) {
+                int diff = (_rendering1[k] & 0xFF) - (_rendering2[k] & 0xFF);
+                error += _squared? diff * diff: Math.abs(diff);
+            }
+        }
+        for (; offset < length; offset ++) {
+            int diff = (_rendering1[offset] & 0xFF) - (_rendering2[offset] & 0xFF);
+            error += _squared? diff * diff: Math.abs(diff);
+        }
+        return error;
+    }
+
+    /**
+     * @param _rendering1 - sparse RGB rendering
+     * @param _rendering2 - sparse RGB rendering
+     * @param _squared - true: sum of squared gray differences (L2), false: sum of absolute gray differences (L1)
+     * @return
+     */
+    static long error(SparseRendering _rendering1, SparseRendering _rendering2, boolean _squared) {
+        int background = gray(IRenderer.BG_COLOR[0], IRenderer.BG_COLOR[1], IRenderer.BG_COLOR[2]);
+        long error = 0;
+        // pixels missing in the other rendering are background
+        for (int index = 0; index < _rendering1.size(); index ++) {
+            int index2 = _rendering2.find(_rendering1.keys[index]);
+            int gray1 = gray(_rendering1.rs[index], _rendering1.gs[index], _rendering1.bs[index]);
+            int gray2 = index2 < 0? background: gray(_rendering2.rs[index2], _rendering2.gs[index2], _rendering2.bs[index2]);
+            int diff = gray1 - gray2;
+            error += _squared? diff * diff: Math.abs(diff);
+        }
+        for (int index2 = 0; index2 < _rendering2.size(); index2 ++) {
+            if (_rendering1.find(_rendering2.keys[index2]) >= 0) continue;
+            int diff = background - gray(_rendering2.rs[index2], _rendering2.gs[index2], _rendering2.bs[index2]);
+            error += _squared? diff * diff: Math.abs(diff);
+        }
+        return error;
+    }
+
+    /**
+     * @param _rendering1 - sparse gray rendering
+     * @param _rendering2 - sparse gray rendering
+     * @param _squared - true: sum of squared gray differences (L2), false: sum of absolute gray differences (L1)
+     * @return
+     */
+    static long grayError(SparseRendering _rendering1, SparseRendering _rendering2, boolean _squared) {
+        int background = DeckGLGrayRenderer.GRAY_BG_COLOR & 0xFF;
+        long error = 0;
+        // pixels missing in the other rendering are background
+        for (int index = 0; index < _rendering1.size(); index ++) {
+            int index2 = _rendering2.find(_rendering1.keys[index]);
+            int diff = (_rendering1.rs[index] & 0xFF) - (index2 < 0? background: _rendering2.rs[index2] & 0xFF);
+            error += _squared? diff * diff: Math.abs(diff);
+        }
+        for (int index2 = 0; index2 < _rendering2.size(); index2 ++) {
+            if (_rendering1.find(_rendering2.keys[index2]) >= 0) continue;
+            int diff = background - (_rendering2.rs[index2] & 0xFF);
+            error += _squared? diff * diff: Math.abs(diff);
+        }
+        return error;
+    }
+}
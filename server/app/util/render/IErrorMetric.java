@@ -1,9 +1,18 @@
 package util.render;
 
-import java.util.List;
-
+/**
+ * Implementations must be stateless, one instance is shared by all sample selection threads
+ */
 public interface IErrorMetric {
     double error(byte[] _rendering1, byte[] _rendering2, int _resolution);
 
-    double error(List<Pixel> _rendering1, List<Pixel> _rendering2, int _resolution);
+    double error(SparseRendering _rendering1, SparseRendering _rendering2, int _resolution);
+
+    /**
+     * @return p if the error is the sum over pixels of |gray1 - gray2|^p, 0 otherwise,
+     *         renderers use it to compute errors without materializing renderings (see IRenderer.candidateErrors)
+     */
+    default int grayDifferencePower() {
+        return 0;
+    }
 }
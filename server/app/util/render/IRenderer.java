@@ -3,8 +3,9 @@ package util.render;
 import model.Point;
 import util.UnsignedByte;
 
-import java.util.List;
-
+/**
+ * Implementations must be stateless, one instance is shared by all sample selection threads
+ */
 public interface IRenderer {
 
     byte[] COLOR = {
@@ -20,9 +21,38 @@ public interface IRenderer {
 
     byte[] createRendering(int _resolution);
 
+    /**
+     * Reset a rendering created by createRendering(_resolution) to the background,
+     * so that scratch renderings can be reused (see RenderingPool)
+     *
+     * @param rendering
+     * @param _resolution
+     */
+    void clearRendering(byte[] rendering, int _resolution);
+
     boolean render(byte[] rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point);
 
-    boolean render(List<Pixel> rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point);
+    boolean render(SparseRendering rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point);
 
     int realResolution(int _resolution);
+
+    /**
+     * Errors between rendering all given points together (the ground truth) and rendering each of them alone,
+     * renderers that can compute them without a rendering per point override it (e.g. DeckGLRenderer)
+     *
+     * @param rendering - cleared rendering, used as scratch for the ground truth
+     * @param _cX
+     * @param _cY
+     * @param _halfDimension
+     * @param _resolution
+     * @param _points
+     * @param _count - number of points in _points
+     * @param _errorMetric
+     * @param _errors - error of each point is written to it
+     * @return false if it is not supported by the renderer or the error metric, nothing is rendered or written
+     */
+    default boolean candidateErrors(byte[] rendering, double _cX, double _cY, double _halfDimension, int _resolution,
+                                    Point[] _points, int _count, IErrorMetric _errorMetric, double[] _errors) {
+        return false;
+    }
 }
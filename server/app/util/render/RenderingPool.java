@@ -0,0 +1,108 @@
+package util.render;
+
+import model.Point;
+
+import java.util.Arrays;
+
+/**
+ * Scratch renderings for sample selection and error computation, pooled per thread
+ *
+ *  - a rendering is identified by a slot (one per rendering alive at the same time in a caller)
+ *    and the resolution, it is allocated by the renderer on first use and cleared on every later use
+ *  - one pool per thread, so sample selection threads never share a buffer,
+ *    while the renderers themselves stay stateless
+ *
+ * Note: a rendering is only valid until the same slot is requested again on the same thread.
+ */
+public class RenderingPool {
+
+    // slots used by RAQuadTree
+    public static final int GROUND_TRUTH = 0;
+    public static final int CANDIDATE = 1;
+    public static final int NODE = 2;
+    public static final int CHILDREN = 3;
+    public static final int SLOTS = 4;
+
+    private static final ThreadLocal<RenderingPool> pools = ThreadLocal.withInitial(RenderingPool::new);
+
+    // [slot][resolution] -> rendering
+    byte[][][] renderings;
+    // renderer the renderings were created by
+    IRenderer renderer;
+    // [slot] -> sparse rendering
+    SparseRendering[] sparseRenderings;
+    // candidates of sample selection and their errors
+    Point[] candidates;
+    double[] errors;
+
+    RenderingPool() {
+        renderings = new byte[SLOTS][0][];
+        sparseRenderings = new SparseRendering[SLOTS];
+        for (int i = 0; i < SLOTS; i ++) {
+            sparseRenderings[i] = new SparseRendering();
+        }
+        candidates = new Point[4];
+        errors = new double[4];
+    }
+
+    /**
+     * @return the pool of current thread
+     */
+    public static RenderingPool get() {
+        return pools.get();
+    }
+
+    /**
+     * @param _renderer
+     * @param _slot - [0, SLOTS)
+     * @param _resolution
+     * @return a rendering as created by _renderer.createRendering(_resolution), cleared to the background
+     */
+    public byte[] rendering(IRenderer _renderer, int _slot, int _resolution) {
+        if (_renderer != renderer) {
+            // renderings of another renderer may have a different layout
+            for (int i = 0; i < SLOTS; i ++) {
+                renderings[i] = new byte[0][];
+            }
+            renderer = _renderer;
+        }
+        byte[][] bySlot = renderings[_slot];
+        if (_resolution >= bySlot.length) {
+            bySlot = Arrays.copyOf(bySlot, Math.max(_resolution + 1, bySlot.length * 2));
+            renderings[_slot] = bySlot;
+        }
+        byte[] rendering = bySlot[_resolution];
+        if (rendering == null) {
+            rendering = _renderer.createRendering(_resolution);
+            bySlot[_resolution] = rendering;
+        }
+        else {
+            _renderer.clearRendering(rendering, _resolution);
+        }
+        return rendering;
+    }
+
+    /**
+     * @param _slot - [0, SLOTS)
+     * @return an empty sparse rendering
+     */
+    public SparseRendering sparseRendering(int _slot) {
+        SparseRendering rendering = sparseRenderings[_slot];
+        rendering.clear();
+        return rendering;
+    }
+
+    /**
+     * @return array of the (up to 4) candidate samples of a node, clear it after use
+     */
+    public Point[] candidates() {
+        return candidates;
+    }
+
+    /**
+     * @return array of the errors of the candidates
+     */
+    public double[] errors() {
+        return errors;
+    }
+}
@@ -1,19 +1,14 @@
 package util.render;
 
-import javafx.util.Pair;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 public class SnapL1Error implements IErrorMetric {
 
     /**
      * Compute L1 error between two snap renderings
      *
      * a rendering
-     * - Use 1-D array to simulate a 2-D bitmap (0 or 1)
-     *   suppose 2-D bitmap has dimension lengths: side * side
-     *   [i][j] = i * side + j
+     * - Use a bitset to simulate a 2-D bitmap (0 or 1), see SnapRenderer
+     * - pixels are 0 / 1 bits, so the error is the number of different bits,
+     *   counted 64 pixels at a time
      *
      * @param _rendering1
      * @param _rendering2
@@ -22,24 +17,14 @@ public class SnapL1Error implements IErrorMetric {
      */
     @Override
     public double error(byte[] _rendering1, byte[] _rendering2, int _resolution) {
-        int side = _resolution;
-        // compute L1 error between pixels with 0 / 1 bit
-        double error = 0.0;
-        for (int i = 0; i < side; i++) {
-            for (int j = 0; j < side; j++) {
-                byte bit1 = _rendering1[i * side + j];
-                byte bit2 = _rendering2[i * side + j];
-                error += Math.abs(bit1 - bit2);
-            }
-        }
-        return error;
+        return SnapRenderer.differentPixels(_rendering1, _rendering2, _resolution);
     }
 
     /**
      * Compute L1 error between two snap renderings
      *
      * a rendering
-     * - a list of pixels [i, j, r, g, b]
+     * - sparse pixels with bit 1, the rest are 0
      *
      * @param _rendering1
      * @param _rendering2
@@ -47,48 +32,7 @@ public class SnapL1Error implements IErrorMetric {
      * @return
      */
     @Override
-    public double error(List<Pixel> _rendering1, List<Pixel> _rendering2, int _resolution) {
-        // find the longer list to build a hash map
-        List<Pixel> longer;
-        List<Pixel> shorter;
-        if (_rendering1.size() > _rendering2.size()) {
-            longer = _rendering1;
-            shorter = _rendering2;
-        }
-        else {
-            longer = _rendering2;
-            shorter = _rendering1;
-        }
-
-        Map<Pair<Integer, Integer>, Pixel> longerMap = new HashMap<>();
-        for (Pixel pixel: longer) {
-            longerMap.put(new Pair<>(pixel.i, pixel.j), pixel);
-        }
-
-        // loop the shorter list,
-        // compute L1 error between pixels with 0 / 1 bit
-        double error = 0.0;
-        for (Pixel pixel: shorter) {
-            byte bit1 = 1;
-            Pair<Integer, Integer> pixelIndex = new Pair<>(pixel.i, pixel.j);
-
-            byte bit2 = 0;
-            if (longerMap.containsKey(pixelIndex)) {
-                // remove the matched pixel from longer map
-                longerMap.remove(pixelIndex);
-                bit2 = 1;
-            }
-
-            error += Math.abs(bit1 - bit2);
-        }
-
-        // loop the rest of the longer map that has not matched pixel in shorter list
-        for (Pixel pixel: longerMap.values()) {
-            byte bit1 = 1;
-            byte bit2 = 0;
-            error += Math.abs(bit1 - bit2);
-        }
-
-        return error;
+    public double error(SparseRendering _rendering1, SparseRendering _rendering2, int _resolution) {
+        return SnapRenderer.differentPixels(_rendering1, _rendering2);
     }
 }
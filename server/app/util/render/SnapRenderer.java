@@ -1,43 +1,111 @@
 package util.render;
 
-import javafx.util.Pair;
 import model.Point;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public class SnapRenderer implements IRenderer {
 
+    // reads a snap rendering as 64-bit words
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * @param _resolution
+     * @return number of 64-bit words of a snap rendering
+     */
+    public static int words(int _resolution) {
+        return (_resolution * _resolution + 63) >>> 6;
+    }
+
+    /**
+     * Pixel cell of a point in a snap rendering, two points are rendered onto the same pixel iff their cells are equal
+     *
+     * @param _cX
+     * @param _cY
+     * @param _halfDimension
+     * @param _resolution
+     * @param point
+     * @param _sparse - true: cell in a SparseRendering, false: cell in a byte[] rendering
+     * @return bit index of the pixel in a byte[] rendering, or key of the pixel in a SparseRendering
+     */
+    public static long cell(double _cX, double _cY, double _halfDimension, int _resolution, Point point, boolean _sparse) {
+        int side = _resolution;
+        double pixelLength = 2 * _halfDimension / (double)_resolution;
+        // boundary of the rendering
+        double left = _cX - _halfDimension; // may be overflow to negative
+        double top = _cY - _halfDimension; // may be overflow to negative
+        // pixel index of the point
+        int i = (int)((point.getX() - left) / pixelLength);
+        int j = (int)((point.getY() - top) / pixelLength);
+        return _sparse? SparseRendering.key(i, j): i * side + j;
+    }
+
+    /**
+     * Number of pixels with different bits in two snap renderings,
+     * i.e. the popcount of the xor of the two bitmaps, 64 pixels at a time
+     *
+     * @param _rendering1
+     * @param _rendering2
+     * @param _resolution
+     * @return
+     */
+    public static int differentPixels(byte[] _rendering1, byte[] _rendering2, int _resolution) {
+        int words = words(_resolution);
+        int count = 0;
+        for (int w = 0, offset = 0; w < words; w ++, offset += 8) {
+            long word1 = (long) WORDS.get(_rendering1, offset);
+            long word2 = (long) WORDS.get(_rendering2, offset);
+            count += Long.bitCount(word1 ^ word2);
+        }
+        return count;
+    }
+
+    /**
+     * Number of pixels with different bits in two sparse snap renderings
+     *
+     * @param _rendering1
+     * @param _rendering2
+     * @return
+     */
+    public static int differentPixels(SparseRendering _rendering1, SparseRendering _rendering2) {
+        int common = 0;
+        for (int index = 0; index < _rendering1.size(); index ++) {
+            if (_rendering2.find(_rendering1.keys[index]) >= 0) common ++;
+        }
+        return _rendering1.size() + _rendering2.size() - 2 * common;
+    }
+
     /**
      * Create a snap rendering with all bits 0
      *
-     *  - Use 1-D array to simulate a 2-D bitmap (0 or 1)
+     *  - Use a bitset to simulate a 2-D bitmap (0 or 1)
      *    suppose 2-D bitmap has dimension lengths: side * side
-     *    [i][j] = i * side + j
+     *    [i][j] = bit (i * side + j), i.e. bit ((i * side + j) % 8) of byte ((i * side + j) / 8)
+     *  - the bitset is padded to whole 64-bit words (little-endian), see differentPixels()
      *
      * @param _resolution
      * @return
      */
     @Override
     public byte[] createRendering(int _resolution) {
-        int side = _resolution;
-        byte[] rendering = new byte[side * side];
-        // init rendering with bit 0
-        for (int i = 0; i < side; i++) {
-            for (int j = 0; j < side; j++) {
-                rendering[i * side + j] = 0;
-            }
-        }
-        return rendering;
+        // new array is initialized with bit 0
+        return new byte[words(_resolution) * 8];
+    }
+
+    @Override
+    public void clearRendering(byte[] rendering, int _resolution) {
+        Arrays.fill(rendering, 0, words(_resolution) * 8, (byte) 0);
     }
 
     /**
      * Render a new point onto the given snap rendering
      *
-     * @param rendering - Use 1-D array to simulate a 2-D bitmap (0 or 1)
+     * @param rendering - Use a bitset to simulate a 2-D bitmap (0 or 1)
      *                    suppose 2-D bitmap has dimension lengths: side * side
-     *                    [i][j] = i * side + j
+     *                    [i][j] = bit (i * side + j)
      * @param _cX
      * @param _cY
      * @param _halfDimension
@@ -47,28 +115,21 @@ public class SnapRenderer implements IRenderer {
      */
     @Override
     public boolean render(byte[] rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point) {
-        int side = _resolution;
-        boolean isDifferent = false;
-        double pixelLength = 2 * _halfDimension / (double)_resolution;
-        // boundary of the rendering
-        double left = _cX - _halfDimension; // may be overflow to negative
-        double top = _cY - _halfDimension; // may be overflow to negative
-        // pixel index of the point
-        int i = (int)((point.getX() - left) / pixelLength);
-        int j = (int)((point.getY() - top) / pixelLength);
-        byte obit = rendering[i * side + j];
-        if (obit == 0) {
-            isDifferent = true;
-            rendering[i * side + j] = 1;
+        int bit = (int) cell(_cX, _cY, _halfDimension, _resolution, point, false);
+        int mask = 1 << (bit & 7);
+        byte obyte = rendering[bit >>> 3];
+        if ((obyte & mask) == 0) {
+            rendering[bit >>> 3] = (byte) (obyte | mask);
+            return true;
         }
 
-        return isDifferent;
+        return false;
     }
 
     /**
-     * Render a new point onto the given snap rendering
+     * Render a new point onto the given sparse snap rendering
      *
-     * @param rendering - a list of pixels [i, j, r, g, b]
+     * @param rendering - pixels with bit 1
      * @param _cX
      * @param _cY
      * @param _halfDimension
@@ -77,28 +138,38 @@ public class SnapRenderer implements IRenderer {
      * @return boolean - if render the point on given rendering does not change the result, return false; else return true;
      */
     @Override
-    public boolean render(List<Pixel> rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point) {
-        // build hash map for rendering pixels
-        Map<Pair<Integer, Integer>, Pixel> renderingMap = new HashMap<>();
-        for (Pixel pixel: rendering) {
-            renderingMap.put(new Pair<>(pixel.i, pixel.j), pixel);
+    public boolean render(SparseRendering rendering, double _cX, double _cY, double _halfDimension, int _resolution, Point point) {
+        long cell = cell(_cX, _cY, _halfDimension, _resolution, point, true);
+        if (rendering.find(cell) < 0) {
+            rendering.add(cell, (byte) 1, (byte) 1, (byte) 1);
+            return true;
         }
 
-        boolean isDifferent = false;
-        double pixelLength = 2 * _halfDimension / (double)_resolution;
-        // boundary of the rendering
-        double left = _cX - _halfDimension; // may be overflow to negative
-        double top = _cY - _halfDimension; // may be overflow to negative
-        // pixel index of the point
-        int i = (int)((point.getX() - left) / pixelLength);
-        int j = (int)((point.getY() - top) / pixelLength);
-        Pair<Integer, Integer> pixelIndex = new Pair<>(i, j);
-        if (!renderingMap.containsKey(pixelIndex)) {
-            isDifferent = true;
-            rendering.add(new Pixel(i, j));
-        }
+        return false;
+    }
 
-        return isDifferent;
+    /**
+     * Errors of snap renderings are closed form: the ground truth has a bit on the distinct cells of the points,
+     * and a point rendered alone has its own cell, which is always in the ground truth,
+     * so the error of every point is the number of distinct cells - 1, nothing is rendered
+     */
+    @Override
+    public boolean candidateErrors(byte[] rendering, double _cX, double _cY, double _halfDimension, int _resolution,
+                                   Point[] _points, int _count, IErrorMetric _errorMetric, double[] _errors) {
+        if (!(_errorMetric instanceof SnapL1Error) && !(_errorMetric instanceof SnapL2Error)) return false;
+        int distinct = 0;
+        for (int k = 0; k < _count; k ++) {
+            long cell = cell(_cX, _cY, _halfDimension, _resolution, _points[k], false);
+            boolean seen = false;
+            for (int l = 0; l < k && !seen; l ++) {
+                seen = cell(_cX, _cY, _halfDimension, _resolution, _points[l], false) == cell;
+            }
+            if (!seen) distinct ++;
+        }
+        for (int k = 0; k < _count; k ++) {
+            _errors[k] = distinct - 1;
+        }
+        return true;
     }
 
     @Override
@@ -0,0 +1,171 @@
+package util.render;
+
+import java.util.Arrays;
+
+/**
+ * Sparse rendering for large resolutions, only pixels different from the background are stored
+ *
+ *  - pixels [i, j, r, g, b] are stored densely in the order they are added,
+ *    so error metrics walk them in O(size)
+ *  - a pixel is found by (i, j) packed into a long key through an open-addressing (linear probing) table
+ *    of pixel index + 1 (0 means empty), so rendering a point never rebuilds a map
+ *  - snap renderings only use the keys, gray renderings (see DeckGLGrayRenderer) only use r
+ */
+public class SparseRendering {
+
+    private static final int MIN_CAPACITY = 16;
+
+    // pixels
+    int size;
+    long[] keys;
+    byte[] rs;
+    byte[] gs;
+    byte[] bs;
+
+    // open-addressing table of pixel index + 1, capacity is a power of 2
+    int[] table;
+    int mask;
+
+    public SparseRendering() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param _expectedSize - number of pixels expected to be added
+     */
+    public SparseRendering(int _expectedSize) {
+        int pixels = Math.max(MIN_CAPACITY, _expectedSize);
+        keys = new long[pixels];
+        rs = new byte[pixels];
+        gs = new byte[pixels];
+        bs = new byte[pixels];
+        int capacity = Integer.highestOneBit(pixels * 2 - 1) << 1;
+        table = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    static long key(int _i, int _j) {
+        return ((long) _i << 32) | (_j & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long _key) {
+        // mix function of murmur3
+        _key ^= _key >>> 33;
+        _key *= 0xFF51AFD7ED558CCDL;
+        _key ^= _key >>> 33;
+        return (int) _key;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param _i
+     * @param _j
+     * @return index of pixel [_i, _j], -1 if it is background
+     */
+    public int find(int _i, int _j) {
+        return find(key(_i, _j));
+    }
+
+    int find(long _key) {
+        int slot = hash(_key) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (keys[entry - 1] == _key) return entry - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * add a pixel that is not in the rendering yet
+     *
+     * @return index of the new pixel
+     */
+    public int add(int _i, int _j, byte _r, byte _g, byte _b) {
+        return add(key(_i, _j), _r, _g, _b);
+    }
+
+    int add(long _key, byte _r, byte _g, byte _b) {
+        if (size == keys.length) {
+            grow();
+        }
+        int index = size ++;
+        keys[index] = _key;
+        rs[index] = _r;
+        gs[index] = _g;
+        bs[index] = _b;
+        insert(_key, index);
+        return index;
+    }
+
+    public int i(int _index) {
+        return (int) (keys[_index] >> 32);
+    }
+
+    public int j(int _index) {
+        return (int) keys[_index];
+    }
+
+    public byte r(int _index) {
+        return rs[_index];
+    }
+
+    public byte g(int _index) {
+        return gs[_index];
+    }
+
+    public byte b(int _index) {
+        return bs[_index];
+    }
+
+    public void set(int _index, byte _r, byte _g, byte _b) {
+        rs[_index] = _r;
+        gs[_index] = _g;
+        bs[_index] = _b;
+    }
+
+    /**
+     * remove all pixels, keep the capacity for reuse
+     */
+    public void clear() {
+        if (size * 4 < table.length) {
+            // only a few slots are used, clear them by probing the keys
+            for (int index = 0; index < size; index ++) {
+                int slot = hash(keys[index]) & mask;
+                while (table[slot] != 0) {
+                    table[slot] = 0;
+                    slot = (slot + 1) & mask;
+                }
+            }
+        }
+        else {
+            Arrays.fill(table, 0);
+        }
+        size = 0;
+    }
+
+    private void insert(long _key, int _index) {
+        int slot = hash(_key) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = _index + 1;
+    }
+
+    private void grow() {
+        int pixels = keys.length * 2;
+        keys = Arrays.copyOf(keys, pixels);
+        rs = Arrays.copyOf(rs, pixels);
+        gs = Arrays.copyOf(gs, pixels);
+        bs = Arrays.copyOf(bs, pixels);
+        // keep load factor <= 0.5
+        table = new int[pixels * 2];
+        mask = table.length - 1;
+        for (int index = 0; index < size; index ++) {
+            insert(keys[index], index);
+        }
+    }
+}
@@ -40,6 +40,9 @@ angular.module("rainbow.map", ["leaflet-directive", "rainbow.common"])
     // store request object for handle websocket onMessage
     $scope.request = {};
 
+    // store result data of the latest query, binary delta messages are appended to it
+    $scope.resultData = [];
+
     // store query object
     $scope.query = {
       key: "",
@@ -233,6 +236,11 @@ angular.module("rainbow.map", ["leaflet-directive", "rainbow.common"])
 
     /** middleware mode */
     $scope.handleResult = function(result) {
+      // binary delta message, append to the result of previous messages
+      if (result.append) {
+        result.data = $scope.resultData.concat(result.data);
+      }
+      $scope.resultData = result.data;
       if(result.data.length > 0) {
         $scope.pointsCount = result.data.length;
         moduleManager.publishEvent(moduleManager.EVENT.CHANGE_RESULT_COUNT, {pointsCount: $scope.pointsCount});
@@ -258,8 +266,8 @@ angular.module("rainbow.map", ["leaflet-directive", "rainbow.common"])
       response.msgType = dv.getInt32(offset);
       offset = offset + 4;
       const headerSize = 4 + 8 + 8 + 8 + 4;
-      // message type = binary
-      if (response.msgType == 0) {
+      // message type = binary (0) / binary delta (2)
+      if (response.msgType == 0 || response.msgType == 2) {
         // ---- binary data payload ----
         //   lat1      lng1      lat2      lng2      ...
         // | 8 BYTES | 8 BYTES | 8 BYTES | 8 BYTES | ...
@@ -275,7 +283,7 @@ angular.module("rainbow.map", ["leaflet-directive", "rainbow.common"])
           record.push(dv.getFloat64(offset)); // lng
           data.push(record);
         }
-        response.result = {data: data};
+        response.result = {data: data, append: response.msgType == 2};
         console.log("==== websocket received binary data ====");
         console.log(binaryData);
         console.log("size = " + (headerSize + dataLength * recordSize) / (1024.0 * 1024.0) + " MB.");
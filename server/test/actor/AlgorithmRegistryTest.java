@@ -0,0 +1,145 @@
+package actor;
+
+import algorithms.IAlgorithm;
+import algorithms.RAQuadTree;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import model.Point;
+import model.Query;
+import util.Constants;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Agents share one algorithm instance per key through the AlgorithmRegistry,
+ * loaded algorithms are bounded by their estimated bytes and evicted ones are spilled to snapshot files
+ */
+public class AlgorithmRegistryTest {
+
+    static Query query(String _key, String _algorithm) {
+        Query query = new Query();
+        query.key = _key;
+        query.algorithm = _algorithm;
+        return query;
+    }
+
+    static AlgorithmRegistry registry(long _maxBytes) {
+        Config config = ConfigFactory.parseString("registry.max_bytes = " + _maxBytes);
+        return new AlgorithmRegistry(config, ForkJoinPool.commonPool());
+    }
+
+    static List<Point> generate(long seed, int n) {
+        Random random = new Random(seed);
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < n; i ++) {
+            points.add(new Point(-120 + random.nextGaussian() * 10, 35 + random.nextGaussian() * 5));
+        }
+        return points;
+    }
+
+    /**
+     * acquire the key as an agent would, and load it if claimed
+     */
+    static AlgorithmRegistry.Entry acquireAndLoad(AlgorithmRegistry _registry, String _key, int _times) {
+        AlgorithmRegistry.Entry entry = null;
+        for (int i = 0; i < _times; i ++) {
+            entry = _registry.acquire(query(_key, "RAQuadTree"));
+        }
+        if (entry.claimLoad()) {
+            entry.algorithm.load(generate(1, 20000));
+            entry.algorithm.finishLoad();
+            _registry.loaded(entry, false);
+        }
+        return entry;
+    }
+
+    static List<String> keys(AlgorithmRegistry _registry) {
+        List<String> keys = new ArrayList<>();
+        for (AlgorithmRegistry.Entry entry : _registry.entries()) {
+            keys.add(entry.key);
+        }
+        return keys;
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+
+        // test 1 - two agents acquire the same key, only the first one claims loading it
+        // expected true true false
+        AlgorithmRegistry registry = registry(Long.MAX_VALUE);
+        AlgorithmRegistry.Entry entry1 = registry.acquire(query("a", "RAQuadTree"));
+        AlgorithmRegistry.Entry entry2 = registry.acquire(query("a", "RAQuadTree"));
+        System.out.println("test1: " + (entry1 == entry2) + " " + entry1.claimLoad() + " " + entry2.claimLoad());
+
+        // test 2 - the joining agent is notified when loading is finished
+        // expected false true true
+        boolean loadedBefore = entry2.isLoaded();
+        registry.loaded(entry1, false);
+        System.out.println("test2: " + loadedBefore + " " + entry2.isLoaded() + " " + (entry2.whenLoaded().join() == entry1.algorithm));
+
+        // test 3 - failed loading is removed, joined agents are notified, and the next agent loads it again
+        // expected true true true
+        AlgorithmRegistry.Entry failed = registry.acquire(query("b", "RAQuadTree"));
+        failed.claimLoad();
+        registry.failed(failed, new RuntimeException("database is down"));
+        boolean notified;
+        try {
+            failed.whenLoaded().get();
+            notified = false;
+        } catch (ExecutionException e) {
+            notified = true;
+        }
+        AlgorithmRegistry.Entry retry = registry.acquire(query("b", "RAQuadTree"));
+        System.out.println("test3: " + notified + " " + (retry != failed) + " " + retry.claimLoad());
+
+        // test 4 - unknown algorithm
+        // expected null
+        System.out.println("test4: " + registry.acquire(query("c", "UnknownAlgorithm")));
+
+        // bound the registry to 2.5 algorithms of the same size
+        File directory = Files.createTempDirectory("registry-test").toFile();
+        directory.deleteOnExit();
+        Constants.DATASET_NAME = new File(directory, "test").getPath();
+        IAlgorithm sample = new RAQuadTree();
+        sample.load(generate(1, 20000));
+        sample.finishLoad();
+        registry = registry(sample.estimatedBytes() * 5 / 2);
+
+        // test 5 - a newly loaded algorithm acquired only once does not evict algorithms acquired more often,
+        // it is spilled to its snapshot file instead
+        // expected [a, b] true
+        AlgorithmRegistry.Entry a = acquireAndLoad(registry, "a", 5);
+        acquireAndLoad(registry, "b", 5);
+        AlgorithmRegistry.Entry c = acquireAndLoad(registry, "c", 1);
+        // wait until the spilled entry is written and released
+        c.whenSpilled().join();
+        boolean saved = registry.save(c).join();
+        System.out.println("test5: " + keys(registry) + " " + (saved && new File(AlgorithmRegistry.fileName("c")).exists()));
+
+        // test 6 - an algorithm acquired more often than the least recently used one evicts it
+        // expected [b, c] true
+        acquireAndLoad(registry, "c", 10);
+        List<String> loadedKeys = keys(registry);
+        a.whenSpilled().join();
+        saved = registry.save(a).join();
+        System.out.println("test6: " + loadedKeys + " " + (saved && new File(AlgorithmRegistry.fileName("a")).exists()));
+
+        // test 7 - the evicted algorithm is loaded from its snapshot file instead of the database,
+        // a mapped snapshot keeps its nodes out of the heap, so nothing is evicted
+        // expected true [b, c, a]
+        AlgorithmRegistry.Entry reloaded = registry.acquire(query("a", "RAQuadTree"));
+        boolean fromFile = reloaded.claimLoad() && reloaded.algorithm.readFromFile(AlgorithmRegistry.fileName("a"));
+        registry.loaded(reloaded, true);
+        System.out.println("test7: " + fromFile + " " + keys(registry));
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+    }
+}
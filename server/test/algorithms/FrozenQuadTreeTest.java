@@ -0,0 +1,87 @@
+package algorithms;
+
+import model.Point;
+import util.FrozenQuadTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Freezing a RAQuadTree keeps the structure, counts and samples of the object graph
+ */
+public class FrozenQuadTreeTest {
+
+    static List<Point> generate(long seed, int n) {
+        Random random = new Random(seed);
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < n; i ++) {
+            // a few gaussian clusters of different spreads, so the tree has both deep and shallow branches
+            int cluster = random.nextInt(5);
+            double lng = -120 + cluster * 10 + random.nextGaussian() * (cluster + 0.01);
+            double lat = 30 + cluster * 3 + random.nextGaussian() * (cluster + 0.01);
+            points.add(new Point(lng, lat));
+        }
+        return points;
+    }
+
+    /**
+     * @return number of nodes of the subtree that differ
+     */
+    static int compare(RAQuadTree.QuadTree _node, FrozenQuadTree _tree, int _frozenNode) {
+        int mismatches = 0;
+        if (_node.count != _tree.count(_frozenNode)) mismatches ++;
+        if ((_node.sample == null) == _tree.hasSample(_frozenNode)) mismatches ++;
+        else if (_node.sample != null
+                && (_node.sample.getX() != _tree.sampleX(_frozenNode) || _node.sample.getY() != _tree.sampleY(_frozenNode))) {
+            mismatches ++;
+        }
+        if ((_node.northWest == null) != _tree.isLeaf(_frozenNode)) return mismatches + 1;
+        if (_node.northWest == null) return mismatches;
+        mismatches += compare(_node.northWest, _tree, _tree.child(_frozenNode, FrozenQuadTree.NORTH_WEST));
+        mismatches += compare(_node.northEast, _tree, _tree.child(_frozenNode, FrozenQuadTree.NORTH_EAST));
+        mismatches += compare(_node.southWest, _tree, _tree.child(_frozenNode, FrozenQuadTree.SOUTH_WEST));
+        mismatches += compare(_node.southEast, _tree, _tree.child(_frozenNode, FrozenQuadTree.SOUTH_EAST));
+        return mismatches;
+    }
+
+    static int compareDistance(RAQuadTreeDistance.QuadTree _node, FrozenQuadTree _tree, int _frozenNode) {
+        int mismatches = 0;
+        if (_node.count != _tree.count(_frozenNode)) mismatches ++;
+        if ((_node.sample == null) == _tree.hasSample(_frozenNode)) mismatches ++;
+        else if (_node.sample != null
+                && (_node.sample.getX() != _tree.sampleX(_frozenNode) || _node.sample.getY() != _tree.sampleY(_frozenNode))) {
+            mismatches ++;
+        }
+        if ((_node.northWest == null) != _tree.isLeaf(_frozenNode)) return mismatches + 1;
+        if (_node.northWest == null) return mismatches;
+        mismatches += compareDistance(_node.northWest, _tree, _tree.child(_frozenNode, FrozenQuadTree.NORTH_WEST));
+        mismatches += compareDistance(_node.northEast, _tree, _tree.child(_frozenNode, FrozenQuadTree.NORTH_EAST));
+        mismatches += compareDistance(_node.southWest, _tree, _tree.child(_frozenNode, FrozenQuadTree.SOUTH_WEST));
+        mismatches += compareDistance(_node.southEast, _tree, _tree.child(_frozenNode, FrozenQuadTree.SOUTH_EAST));
+        return mismatches;
+    }
+
+    public static void main(String[] args) {
+
+        // test 1 - RAQuadTree loaded with 2 batches
+        // expected 0 mismatches
+        RAQuadTree raQuadTree = new RAQuadTree();
+        raQuadTree.load(generate(1, 20000));
+        raQuadTree.load(generate(2, 20000));
+        // finishLoad selects samples in place before freezing, then drops the object graph
+        RAQuadTree.QuadTree root = raQuadTree.quadTree;
+        raQuadTree.finishLoad();
+        int mismatches = compare(root, raQuadTree.frozenQuadTree, 0);
+        System.out.println("test1: " + mismatches + " mismatches in " + raQuadTree.frozenQuadTree.size() + " nodes");
+
+        // test 2 - RAQuadTreeDistance loaded with 1 batch
+        // expected 0 mismatches
+        RAQuadTreeDistance raQuadTreeDistance = new RAQuadTreeDistance();
+        raQuadTreeDistance.load(generate(3, 20000));
+        RAQuadTreeDistance.QuadTree rootDistance = raQuadTreeDistance.quadTree;
+        raQuadTreeDistance.finishLoad();
+        mismatches = compareDistance(rootDistance, raQuadTreeDistance.frozenQuadTree, 0);
+        System.out.println("test2: " + mismatches + " mismatches in " + raQuadTreeDistance.frozenQuadTree.size() + " nodes");
+    }
+}
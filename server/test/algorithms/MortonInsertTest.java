@@ -0,0 +1,84 @@
+package algorithms;
+
+import model.Point;
+import util.Constants;
+
+import java.util.List;
+
+/**
+ * Building a RAQuadTree from Morton sorted batches gives the same tree as inserting the points one by one
+ */
+public class MortonInsertTest {
+
+    /**
+     * @return number of nodes whose count, sample or children differ
+     */
+    static int compare(RAQuadTree.QuadTree _expected, RAQuadTree.QuadTree _actual) {
+        int mismatches = 0;
+        // the smallest nodes must keep the same point, not only a point at the same position
+        if (_expected.count != _actual.count || _expected.sample != _actual.sample) mismatches ++;
+        if ((_expected.northWest == null) != (_actual.northWest == null)) return mismatches + 1;
+        if (_expected.northWest == null) return mismatches;
+        mismatches += compare(_expected.northWest, _actual.northWest);
+        mismatches += compare(_expected.northEast, _actual.northEast);
+        mismatches += compare(_expected.southWest, _actual.southWest);
+        mismatches += compare(_expected.southEast, _actual.southEast);
+        return mismatches;
+    }
+
+    static int compareDistance(RAQuadTreeDistance.QuadTree _expected, RAQuadTreeDistance.QuadTree _actual) {
+        int mismatches = 0;
+        if (_expected.count != _actual.count || _expected.sample != _actual.sample) mismatches ++;
+        if ((_expected.northWest == null) != (_actual.northWest == null)) return mismatches + 1;
+        if (_expected.northWest == null) return mismatches;
+        mismatches += compareDistance(_expected.northWest, _actual.northWest);
+        mismatches += compareDistance(_expected.northEast, _actual.northEast);
+        mismatches += compareDistance(_expected.southWest, _actual.southWest);
+        mismatches += compareDistance(_expected.southEast, _actual.southEast);
+        return mismatches;
+    }
+
+    /**
+     * @return batch with a copy of every 10th point, so some smallest nodes receive several points
+     *         and the point they keep depends on the insertion order
+     */
+    static List<Point> generateWithDuplicates(long seed, int n) {
+        List<Point> batch = FrozenQuadTreeTest.generate(seed, n);
+        for (int i = 0; i < n; i += 10) {
+            batch.add(new Point(batch.get(i).getX(), batch.get(i).getY()));
+        }
+        return batch;
+    }
+
+    public static void main(String[] args) {
+        // fork subtrees of more than 1000 points, so both the parallel and the sequential path are built
+        Constants.PARALLEL_THRESHOLD = 1000;
+
+        // test 1 - RAQuadTree, an empty tree built from batch 1, then extended with batch 2
+        // expected 0 mismatches
+        RAQuadTree morton = new RAQuadTree();
+        RAQuadTree sequential = new RAQuadTree();
+        for (long seed = 1; seed <= 2; seed ++) {
+            List<Point> batch = generateWithDuplicates(seed, 50000);
+            // load converts the points to Mercator x/y in place, the same objects are then inserted one by one
+            morton.load(batch);
+            for (Point point : batch) {
+                sequential.quadTree.insert(0.5, 0.5, 0.5, point, 0);
+            }
+        }
+        System.out.println("test1: " + compare(sequential.quadTree, morton.quadTree) + " mismatches");
+
+        // test 2 - RAQuadTreeDistance, same as test 1
+        // expected 0 mismatches
+        RAQuadTreeDistance mortonDistance = new RAQuadTreeDistance();
+        RAQuadTreeDistance sequentialDistance = new RAQuadTreeDistance();
+        for (long seed = 1; seed <= 2; seed ++) {
+            List<Point> batch = generateWithDuplicates(seed, 50000);
+            mortonDistance.load(batch);
+            for (Point point : batch) {
+                sequentialDistance.quadTree.insert(0.5, 0.5, 0.5, point, 0);
+            }
+        }
+        System.out.println("test2: " + compareDistance(sequentialDistance.quadTree, mortonDistance.quadTree) + " mismatches");
+    }
+}
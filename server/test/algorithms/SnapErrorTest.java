@@ -0,0 +1,79 @@
+package algorithms;
+
+import model.Point;
+import util.Constants;
+import util.render.*;
+
+import java.util.Random;
+
+/**
+ * The closed form snap error of a node against its four children is bit-identical to
+ * rendering them with SnapRenderer and comparing the renderings with SnapL1Error / SnapL2Error
+ */
+public class SnapErrorTest {
+
+    static double renderedError(SnapRenderer _renderer, IErrorMetric _errorMetric, Point[] _points,
+                                double _cX, double _cY, double _halfDimension, int _resolution, boolean _sparse) {
+        if (_sparse) {
+            SparseRendering rendering1 = new SparseRendering();
+            SparseRendering rendering2 = new SparseRendering();
+            if (_points[0] != null) _renderer.render(rendering1, _cX, _cY, _halfDimension, _resolution, _points[0]);
+            for (int i = 1; i < _points.length; i ++) {
+                if (_points[i] != null) _renderer.render(rendering2, _cX, _cY, _halfDimension, _resolution, _points[i]);
+            }
+            return _errorMetric.error(rendering1, rendering2, _renderer.realResolution(_resolution));
+        }
+        byte[] rendering1 = _renderer.createRendering(_resolution);
+        byte[] rendering2 = _renderer.createRendering(_resolution);
+        if (_points[0] != null) _renderer.render(rendering1, _cX, _cY, _halfDimension, _resolution, _points[0]);
+        for (int i = 1; i < _points.length; i ++) {
+            if (_points[i] != null) _renderer.render(rendering2, _cX, _cY, _halfDimension, _resolution, _points[i]);
+        }
+        return _errorMetric.error(rendering1, rendering2, _renderer.realResolution(_resolution));
+    }
+
+    /**
+     * @return number of random nodes whose closed form error differs from the rendered error
+     */
+    static int test(IErrorMetric _errorMetric, long _seed, int _nodes) {
+        SnapRenderer renderer = new SnapRenderer();
+        Random random = new Random(_seed);
+        int mismatches = 0;
+        for (int t = 0; t < _nodes; t ++) {
+            // half of the nodes use byte[] renderings, the other half sparse renderings
+            int resolution = 1 + random.nextInt(t % 2 == 0? 4 * Constants.NODE_SAMPLE_SIZE: 300);
+            boolean sparse = resolution > 4 * Constants.NODE_SAMPLE_SIZE;
+            double cX = random.nextDouble();
+            double cY = random.nextDouble();
+            double halfDimension = 0.001 + random.nextDouble() * 0.1;
+            // [sample, NW, NE, SW, SE], each is missing with probability 1/6
+            Point[] points = new Point[5];
+            for (int i = 0; i < points.length; i ++) {
+                if (random.nextInt(6) == 0) continue;
+                // points of a node are clustered into 3 x 3 areas, so cells are often shared
+                double x = cX - halfDimension + (random.nextInt(3) + random.nextDouble() * 0.01) * halfDimension * 2 / 3;
+                double y = cY - halfDimension + (random.nextInt(3) + 0.5) * halfDimension * 2 / 3;
+                points[i] = new Point(x, y);
+            }
+            // the sample of a node is often one of its children's samples
+            if (random.nextBoolean() && points[1] != null) points[0] = points[1];
+
+            double expected = renderedError(renderer, _errorMetric, points, cX, cY, halfDimension, resolution, sparse);
+            double actual = RAQuadTree.snapErrorAgainstChildren(points[0], points[1], points[2], points[3], points[4],
+                    cX, cY, halfDimension, resolution, sparse);
+            if (Double.doubleToLongBits(expected) != Double.doubleToLongBits(actual)) mismatches ++;
+        }
+        return mismatches;
+    }
+
+    public static void main(String[] args) {
+
+        // test 1 - SnapL1Error on 200000 random nodes
+        // expected 0 mismatches
+        System.out.println("test1: " + test(new SnapL1Error(), 1, 200000) + " mismatches");
+
+        // test 2 - SnapL2Error on 200000 random nodes
+        // expected 0 mismatches
+        System.out.println("test2: " + test(new SnapL2Error(), 2, 200000) + " mismatches");
+    }
+}
@@ -0,0 +1,133 @@
+package algorithms;
+
+import model.Point;
+import model.Query;
+import util.Constants;
+import util.FrozenQuadTree;
+import util.MappedFrozenQuadTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writing a RAQuadTree to a binary snapshot and mapping it back keeps its nodes, errors and query results
+ */
+public class SnapshotTest {
+
+    static Query[] queries() {
+        double[][] bboxes = {{-180, -85, 180, 85}, {-125, 25, -75, 50}, {-122, 28, -118, 32}, {-180, -85, 180, 85}};
+        int[] zooms = {2, 5, 9, 12};
+        int[] sampleSizes = {2000, 500, 300, 5000};
+        Query[] queries = new Query[bboxes.length];
+        for (int i = 0; i < queries.length; i ++) {
+            queries[i] = new Query();
+            queries[i].key = "test";
+            queries[i].algorithm = "RAQuadTree";
+            queries[i].bbox = bboxes[i];
+            queries[i].zoom = zooms[i];
+            queries[i].sampleSize = sampleSizes[i];
+        }
+        return queries;
+    }
+
+    static RAQuadTree build(List<Point> _batch1, List<Point> _batch2) {
+        RAQuadTree raQuadTree = new RAQuadTree();
+        raQuadTree.load(_batch1);
+        raQuadTree.load(_batch2);
+        raQuadTree.finishLoad();
+        return raQuadTree;
+    }
+
+    /**
+     * @return number of queries whose results differ
+     */
+    static int compareResults(IAlgorithm _expected, IAlgorithm _actual) {
+        int mismatches = 0;
+        for (Query query : queries()) {
+            byte[] expected = _expected.answerQuery(query);
+            byte[] actual = _actual.answerQuery(query);
+            if (!Arrays.equals(expected, Constants.HEADER_SIZE, expected.length, actual, Constants.HEADER_SIZE, actual.length)) {
+                mismatches ++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * @return number of nodes whose count, sample or errors differ
+     */
+    static int compareNodes(FrozenQuadTree _expected, FrozenQuadTree _actual) {
+        if (_expected.size() != _actual.size()) return Math.abs(_expected.size() - _actual.size());
+        int mismatches = 0;
+        int level = 0;
+        int levelEnd = 1;
+        int internalNodes = 0;
+        for (int node = 0; node < _expected.size(); node ++) {
+            if (node == levelEnd) {
+                level ++;
+                levelEnd = 1 + 4 * internalNodes;
+            }
+            boolean same = _expected.count(node) == _actual.count(node)
+                    && _expected.isLeaf(node) == _actual.isLeaf(node)
+                    && _expected.hasSample(node) == _actual.hasSample(node)
+                    && (!_expected.hasSample(node)
+                        || (_expected.sampleX(node) == _actual.sampleX(node) && _expected.sampleY(node) == _actual.sampleY(node)));
+            if (!_expected.isLeaf(node)) {
+                internalNodes ++;
+                same = same && _expected.child(node, FrozenQuadTree.NORTH_WEST) == _actual.child(node, FrozenQuadTree.NORTH_WEST);
+                for (int zoom = 0; zoom <= Constants.MAX_ZOOM; zoom ++) {
+                    same = same && Double.compare(_expected.error(node, level, zoom), _actual.error(node, level, zoom)) == 0;
+                }
+            }
+            if (!same) mismatches ++;
+        }
+        return mismatches;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Constants.WARMUP_ZOOMS = new int[0];
+        List<Point> batch1 = FrozenQuadTreeTest.generate(1, 20000);
+        List<Point> batch2 = FrozenQuadTreeTest.generate(2, 20000);
+        File file = File.createTempFile("snapshot-test", ".raqt");
+        file.deleteOnExit();
+
+        // test 1 - write a RAQuadTree with all errors computed and map it back
+        // expected true, 0 mismatches, 0 mismatches
+        Constants.LAZY_ERRORS = false;
+        RAQuadTree original = build(batch1, batch2);
+        original.writeToFile(file.getPath());
+        RAQuadTree mapped = new RAQuadTree();
+        boolean success = mapped.readFromFile(file.getPath());
+        System.out.println("test1: read " + success
+                + ", " + compareNodes(original.frozenQuadTree, mapped.frozenQuadTree) + " mismatched nodes"
+                + ", " + compareResults(original, mapped) + " mismatched queries");
+
+        // test 2 - a snapshot with lazy errors not computed yet (NaN) is still queried correctly,
+        // the missing errors are computed on access
+        // expected true, 0 mismatches
+        Constants.LAZY_ERRORS = true;
+        RAQuadTree lazy = build(FrozenQuadTreeTest.generate(1, 20000), FrozenQuadTreeTest.generate(2, 20000));
+        lazy.frozenQuadTree.writeToFile(file.getPath());
+        RAQuadTree mappedLazy = new RAQuadTree();
+        success = mappedLazy.readFromFile(file.getPath());
+        System.out.println("test2: read " + success
+                + ", " + compareResults(original, mappedLazy) + " mismatched queries");
+        Constants.LAZY_ERRORS = false;
+
+        // test 3 - a truncated snapshot is rejected
+        // expected IOException
+        original.writeToFile(file.getPath());
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - Float.BYTES);
+        }
+        try {
+            MappedFrozenQuadTree.mapFromFile(file.getPath());
+            System.out.println("test3: truncated snapshot is mapped");
+        } catch (IOException e) {
+            System.out.println("test3: " + e.getMessage());
+        }
+    }
+}
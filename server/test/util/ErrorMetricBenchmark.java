@@ -0,0 +1,88 @@
+package util;
+
+import model.Point;
+import util.render.DeckGLRenderer;
+import util.render.IErrorMetric;
+import util.render.L1Error;
+import util.render.L2Error;
+
+import java.util.Random;
+
+public class ErrorMetricBenchmark {
+    public static void main(String[] args) {
+        int resolution = args.length > 0? Integer.parseInt(args[0]): 64;
+        int pointsPerRendering = args.length > 1? Integer.parseInt(args[1]): 20;
+        int rounds = args.length > 2? Integer.parseInt(args[2]): 20000;
+
+        DeckGLRenderer renderer = new DeckGLRenderer(1);
+        int realResolution = renderer.realResolution(resolution);
+        Random random = new Random(0);
+
+        // pairs of renderings of random points, the second one renders half of the points of the first one
+        int pairs = 16;
+        byte[][] renderings1 = new byte[pairs][];
+        byte[][] renderings2 = new byte[pairs][];
+        for (int k = 0; k < pairs; k ++) {
+            renderings1[k] = renderer.createRendering(resolution);
+            renderings2[k] = renderer.createRendering(resolution);
+            for (int p = 0; p < pointsPerRendering; p ++) {
+                Point point = new Point(random.nextDouble(), random.nextDouble());
+                renderer.render(renderings1[k], 0.5, 0.5, 0.5, resolution, point);
+                if (p % 2 == 0) renderer.render(renderings2[k], 0.5, 0.5, 0.5, resolution, point);
+            }
+        }
+
+        IErrorMetric l1 = new L1Error();
+        IErrorMetric l2 = new L2Error();
+        // numerical consistency with the per-pixel formula
+        for (int k = 0; k < pairs; k ++) {
+            double expectedL1 = scalarError(renderings1[k], renderings2[k], realResolution, false);
+            double expectedL2 = scalarError(renderings1[k], renderings2[k], realResolution, true);
+            if (l1.error(renderings1[k], renderings2[k], realResolution) != expectedL1
+                    || l2.error(renderings1[k], renderings2[k], realResolution) != expectedL2) {
+                System.out.println("[ErrorMetricBenchmark] inconsistent error on rendering pair " + k);
+                return;
+            }
+        }
+
+        for (int repeat = 0; repeat < 3; repeat ++) {
+            double sink = 0.0;
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i ++) {
+                sink += scalarError(renderings1[i % pairs], renderings2[i % pairs], realResolution, false);
+            }
+            long scalarTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i ++) {
+                sink -= l1.error(renderings1[i % pairs], renderings2[i % pairs], realResolution);
+            }
+            long l1Time = System.nanoTime() - start;
+            System.out.println("[ErrorMetricBenchmark] resolution = " + resolution + ", rounds = " + rounds
+                    + ", per-pixel L1 = " + scalarTime / 1000000 + " ms, L1Error = " + l1Time / 1000000 + " ms"
+                    + ", speedup = " + String.format("%.2f", (double) scalarTime / l1Time) + (sink == 0.0? "": " (mismatch)"));
+        }
+    }
+
+    /**
+     * the per-pixel gray scaling formula the error metrics must agree with
+     */
+    static double scalarError(byte[] _rendering1, byte[] _rendering2, int _resolution, boolean _squared) {
+        int side = _resolution;
+        double error = 0.0;
+        for (int i = 0; i < side; i++) {
+            for (int j = 0; j < side; j++) {
+                int r1 = UnsignedByte.toInt(_rendering1[i * side * 3 + j * 3 + 0]);
+                int g1 = UnsignedByte.toInt(_rendering1[i * side * 3 + j * 3 + 1]);
+                int b1 = UnsignedByte.toInt(_rendering1[i * side * 3 + j * 3 + 2]);
+                // gray scaling formula = (0.3 * R) + (0.59 * G) + (0.11 * B)
+                int gray1 = (int) ((0.3 * r1) + (0.59 * g1) + (0.11 * b1));
+                int r2 = UnsignedByte.toInt(_rendering2[i * side * 3 + j * 3 + 0]);
+                int g2 = UnsignedByte.toInt(_rendering2[i * side * 3 + j * 3 + 1]);
+                int b2 = UnsignedByte.toInt(_rendering2[i * side * 3 + j * 3 + 2]);
+                int gray2 = (int) ((0.3 * r2) + (0.59 * g2) + (0.11 * b2));
+                error += _squared? (gray1 - gray2) * (gray1 - gray2): Math.abs(gray1 - gray2);
+            }
+        }
+        return error;
+    }
+}